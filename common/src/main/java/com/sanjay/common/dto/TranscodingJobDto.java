@@ -6,9 +6,14 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Future;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 @Data
 @Builder
 @NoArgsConstructor
@@ -25,6 +30,19 @@ public class TranscodingJobDto {
     
     private TranscodingJob.JobPriority priority = TranscodingJob.JobPriority.NORMAL;
     
+    /**
+     * Optional time by which the job should be done; orders jobs under the edf scheduling policy.
+     */
+    @Future(message = "Deadline must be in the future")
+    private LocalDateTime deadline;
+    
+    /**
+     * Optional ABR ladder. When present the job decodes the input once and encodes every
+     * rendition from the same decode; codecs, format and frame rate come from outputSettings.
+     */
+    @Valid
+    private List<RenditionDto> renditions;
+    
     @Data
     @Builder
     @NoArgsConstructor
@@ -38,5 +56,18 @@ public class TranscodingJobDto {
         private String resolution = "1280x720";
         private Integer frameRate = 30;
         private String processingMode = "CPU";
+        /** Encoder speed preset; the worker sets it from the job's QoS class. */
+        private String preset;
+    }
+    
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RenditionDto {
+        @NotBlank(message = "Rendition resolution is required")
+        private String resolution;
+        private String videoBitrate;
+        private String audioBitrate;
     }
 }
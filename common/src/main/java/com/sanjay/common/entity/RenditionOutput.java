@@ -0,0 +1,43 @@
+package com.sanjay.common.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One output of a LADDER job. All renditions of a ladder are produced by a single ffmpeg run.
+ */
+@Embeddable
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RenditionOutput {
+    
+    @Column(name = "resolution")
+    private String resolution;
+    
+    @Column(name = "video_bitrate")
+    private String videoBitrate;
+    
+    @Column(name = "audio_bitrate")
+    private String audioBitrate;
+    
+    @Column(name = "output_filename")
+    private String outputFilename;
+    
+    @Column(name = "output_object_key")
+    private String outputObjectKey;
+    
+    @Column(name = "output_file_path")
+    private String outputFilePath;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status")
+    private TranscodingJob.TranscodingStatus status;
+}
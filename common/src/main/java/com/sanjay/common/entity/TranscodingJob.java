@@ -1,6 +1,8 @@
 package com.sanjay.common.entity;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
@@ -46,6 +48,10 @@ public class TranscodingJob {
     @Enumerated(EnumType.STRING)
     private JobPriority priority;
     
+    @Enumerated(EnumType.STRING)
+    @Column(name = "qos_class")
+    private QosClass qosClass;
+    
     @Column(name = "video_codec")
     private String videoCodec;
     
@@ -88,12 +94,65 @@ public class TranscodingJob {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
     
+    @Column(name = "deadline")
+    private LocalDateTime deadline;
+    
     @Column(name = "estimated_duration")
     private Long estimatedDuration;
     
     @Column(name = "actual_duration")
     private Long actualDuration;
     
+    @Column(name = "fps")
+    private Double fps;
+    
+    @Column(name = "speed")
+    private Double speed;
+    
+    @Column(name = "eta_seconds")
+    private Long etaSeconds;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(name = "job_type")
+    @Builder.Default
+    private JobType jobType = JobType.STANDARD;
+    
+    @Column(name = "parent_job_id")
+    private String parentJobId;
+    
+    @Column(name = "segment_index")
+    private Integer segmentIndex;
+    
+    @Column(name = "segment_count")
+    private Integer segmentCount;
+    
+    @Column(name = "input_object_key")
+    private String inputObjectKey;
+    
+    @Column(name = "worker_id")
+    private String workerId;
+    
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+    
+    @Column(name = "lease_token")
+    private Long leaseToken;
+    
+    @Column(name = "attempts")
+    private Integer attempts;
+    
+    @Column(name = "dispatched_at")
+    private LocalDateTime dispatchedAt;
+    
+    @Column(name = "accepted_at")
+    private LocalDateTime acceptedAt;
+    
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "transcoding_job_renditions", joinColumns = @JoinColumn(name = "job_id"))
+    @OrderColumn(name = "rendition_index")
+    @Builder.Default
+    private List<RenditionOutput> renditions = new ArrayList<>();
+    
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -114,4 +173,12 @@ public class TranscodingJob {
     public enum JobPriority {
         LOW, NORMAL, HIGH, URGENT
     }
+    
+    public enum JobType {
+        STANDARD, SEGMENTED, SEGMENT, LADDER
+    }
+    
+    public enum QosClass {
+        STANDARD, PREMIUM
+    }
 }
@@ -4,6 +4,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
 
 @Configuration
 public class KafkaConfig {
@@ -14,4 +17,18 @@ public class KafkaConfig {
         mapper.registerModule(new JavaTimeModule());
         return mapper;
     }
+
+    /**
+     * Listener containers whose records are acknowledged by the application once a job is done.
+     * Acks are passed in offset order by {@link com.sanjay.transcoding.service.ConsumerBackPressure}, so
+     * the container never waits for a poll's records before polling again; the intake capacity is the limit.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> manualAckContainerFactory(
+            ConsumerFactory<String, String> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
 }
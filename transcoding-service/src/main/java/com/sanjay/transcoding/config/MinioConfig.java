@@ -2,6 +2,7 @@ package com.sanjay.transcoding.config;
 
 import io.minio.BucketExistsArgs;
 import io.minio.MakeBucketArgs;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -42,6 +43,14 @@ public class MinioConfig {
         return client;
     }
 
+    @Bean
+    public MultipartMinioClient multipartMinioClient() {
+        return new MultipartMinioClient(MinioAsyncClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey)
+                .build());
+    }
+
     private void ensureBucketExists(MinioClient client, String bucket) {
         try {
             boolean exists = client.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
@@ -0,0 +1,44 @@
+package com.sanjay.transcoding.config;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.MinioAsyncClient;
+import io.minio.messages.Part;
+
+/**
+ * Exposes the S3 multipart primitives that the MinIO SDK keeps protected, so parts can be
+ * uploaded concurrently and before the whole object is known.
+ */
+public class MultipartMinioClient extends MinioAsyncClient {
+
+    public MultipartMinioClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    public String createUpload(String bucket, String objectKey, String contentType) throws Exception {
+        return createMultipartUploadAsync(bucket, null, objectKey, headers(contentType), null)
+                .get().result().uploadId();
+    }
+
+    public String uploadPart(String bucket, String objectKey, String uploadId, int partNumber,
+                             byte[] data, int length) throws Exception {
+        return uploadPartAsync(bucket, null, objectKey, data, length, uploadId, partNumber, null, null)
+                .get().etag();
+    }
+
+    public void completeUpload(String bucket, String objectKey, String uploadId, Part[] parts) throws Exception {
+        completeMultipartUploadAsync(bucket, null, objectKey, uploadId, parts, null, null).get();
+    }
+
+    public void abortUpload(String bucket, String objectKey, String uploadId) throws Exception {
+        abortMultipartUploadAsync(bucket, null, objectKey, uploadId, null, null).get();
+    }
+
+    private Multimap<String, String> headers(String contentType) {
+        Multimap<String, String> headers = HashMultimap.create();
+        if (contentType != null) {
+            headers.put("Content-Type", contentType);
+        }
+        return headers;
+    }
+}
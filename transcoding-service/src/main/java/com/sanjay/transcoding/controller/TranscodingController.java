@@ -5,6 +5,7 @@ import com.sanjay.common.entity.TranscodingJob;
 import com.sanjay.common.entity.User;
 import com.sanjay.common.util.JwtTokenHelper;
 import com.sanjay.transcoding.dto.SystemInfo;
+import com.sanjay.transcoding.dto.WorkerInfo;
 import com.sanjay.transcoding.service.TranscodingService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
@@ -16,6 +17,8 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/transcode")
 @RequiredArgsConstructor
@@ -33,6 +36,11 @@ public class TranscodingController {
         return ResponseEntity.ok(systemInfo);
     }
     
+    @GetMapping("/workers")
+    public ResponseEntity<List<WorkerInfo>> getWorkers() {
+        return ResponseEntity.ok(transcodingService.getWorkers());
+    }
+    
     @PostMapping("/jobs")
     public ResponseEntity<TranscodingJob> createTranscodingJob(
             HttpServletRequest request,
@@ -0,0 +1,26 @@
+package com.sanjay.transcoding.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WorkerInfo {
+    private String workerId;
+    private Set<String> encoders;
+    private String gpuType;
+    private Integer cpuCores;
+    private Double cpuUsage;
+    private Long freeScratchBytes;
+    private Integer outstandingJobs;
+    private Integer maxConcurrentJobs;
+    private Double encodeUnits;
+    private LocalDateTime heartbeatAt;
+}
@@ -1,15 +1,24 @@
 package com.sanjay.transcoding.repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.sanjay.common.entity.TranscodingJob;
 
+import jakarta.persistence.LockModeType;
+
 @Repository
 public interface TranscodingJobRepository extends JpaRepository<TranscodingJob, String> {
 
@@ -18,13 +27,221 @@ public interface TranscodingJobRepository extends JpaRepository<TranscodingJob,
 	Page<TranscodingJob> findByUserIdAndStatus(String userId, TranscodingJob.TranscodingStatus status,
 			Pageable pageable);
 
-	@Query("SELECT j FROM TranscodingJob j WHERE j.status = 'QUEUED' ORDER BY " + "CASE j.priority "
-			+ "WHEN 'URGENT' THEN 1 " + "WHEN 'HIGH' THEN 2 " + "WHEN 'NORMAL' THEN 3 " + "WHEN 'LOW' THEN 4 "
-			+ "END, j.createdAt ASC")
-	List<TranscodingJob> findQueuedJobsOrderByPriorityAndCreatedAt();
-
 	List<TranscodingJob> findByStatus(TranscodingJob.TranscodingStatus status);
 
 	@Query("SELECT COUNT(j) FROM TranscodingJob j WHERE j.status = 'PROCESSING'")
 	Long countActiveJobs();
+
+	List<TranscodingJob> findByParentJobIdOrderBySegmentIndexAsc(String parentJobId);
+
+	long countByParentJobIdAndStatus(String parentJobId, TranscodingJob.TranscodingStatus status);
+
+	/**
+	 * Users with submitted jobs that were not dispatched to the workers yet, and how many each has.
+	 * Segments are dispatched by their parent and never wait here. LOW priority jobs held for an
+	 * off-peak window are left out unless {@code includeLow}.
+	 */
+	@Query("SELECT j.user.id, COUNT(j) FROM TranscodingJob j WHERE j.status = 'QUEUED' AND j.dispatchedAt IS NULL "
+			+ "AND (j.jobType IS NULL OR j.jobType <> 'SEGMENT') "
+			+ "AND (:includeLow = true OR j.priority IS NULL OR j.priority <> 'LOW') GROUP BY j.user.id")
+	List<Object[]> countUndispatchedByUser(@Param("includeLow") boolean includeLow);
+
+	@Query("SELECT j FROM TranscodingJob j JOIN FETCH j.user WHERE j.user.id = :userId AND j.status = 'QUEUED' "
+			+ "AND j.dispatchedAt IS NULL AND (j.jobType IS NULL OR j.jobType <> 'SEGMENT') "
+			+ "AND (:includeLow = true OR j.priority IS NULL OR j.priority <> 'LOW') ORDER BY j.createdAt ASC")
+	List<TranscodingJob> findUndispatched(@Param("userId") String userId, @Param("includeLow") boolean includeLow,
+			Pageable pageable);
+
+	@Query("SELECT COUNT(j) FROM TranscodingJob j WHERE j.status = 'QUEUED' AND j.dispatchedAt IS NULL "
+			+ "AND j.priority = 'LOW' AND (j.jobType IS NULL OR j.jobType <> 'SEGMENT')")
+	long countUndispatchedLow();
+
+	/**
+	 * Jobs dispatched since {@code since} that no worker has claimed yet.
+	 */
+	@Query("SELECT COUNT(j) FROM TranscodingJob j WHERE j.status = 'QUEUED' AND j.dispatchedAt >= :since")
+	long countDispatchedSince(@Param("since") LocalDateTime since);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.dispatchedAt = :dispatchedAt "
+			+ "WHERE j.id = :id AND j.status = 'QUEUED' AND j.dispatchedAt IS NULL")
+	int markDispatched(@Param("id") String id, @Param("dispatchedAt") LocalDateTime dispatchedAt);
+
+	/**
+	 * QUEUED jobs dispatched before {@code before} that no worker has claimed since; some may have been
+	 * accepted by a worker that holds them.
+	 */
+	@Query("SELECT j FROM TranscodingJob j WHERE j.status = 'QUEUED' AND j.dispatchedAt < :before")
+	List<TranscodingJob> findDispatchedBefore(@Param("before") LocalDateTime before);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.dispatchedAt = :now "
+			+ "WHERE j.id = :id AND j.status = 'QUEUED' AND j.dispatchedAt = :dispatchedAt")
+	int redispatch(@Param("id") String id, @Param("dispatchedAt") LocalDateTime dispatchedAt,
+			@Param("now") LocalDateTime now);
+
+	/**
+	 * Records the worker a QUEUED job was sent to; the claim overwrites it with the actual owner.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.workerId = :workerId, j.acceptedAt = NULL "
+			+ "WHERE j.id = :id AND j.status = 'QUEUED'")
+	int assignWorker(@Param("id") String id, @Param("workerId") String workerId);
+
+	/**
+	 * Records that {@code workerId} took a QUEUED job off Kafka and holds it, e.g. in its admission queue
+	 * or parked behind a leader, until it claims it.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.workerId = :workerId, j.acceptedAt = :acceptedAt "
+			+ "WHERE j.id = :id AND j.status = 'QUEUED'")
+	int markAccepted(@Param("id") String id, @Param("workerId") String workerId,
+			@Param("acceptedAt") LocalDateTime acceptedAt);
+
+	/**
+	 * QUEUED jobs that were sent to a worker outside of {@code liveWorkerIds}, which will not claim them.
+	 */
+	@Query("SELECT j FROM TranscodingJob j JOIN FETCH j.user WHERE j.status = 'QUEUED' AND j.workerId IS NOT NULL "
+			+ "AND j.workerId NOT IN :liveWorkerIds")
+	List<TranscodingJob> findAssignedToOtherWorkers(@Param("liveWorkerIds") Collection<String> liveWorkerIds);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.workerId = NULL, j.acceptedAt = NULL "
+			+ "WHERE j.id = :id AND j.status = 'QUEUED' AND j.workerId = :workerId")
+	int unassignWorker(@Param("id") String id, @Param("workerId") String workerId);
+
+	/**
+	 * Moves a QUEUED job to PROCESSING on behalf of {@code workerId} under a new lease. Of several workers
+	 * holding the same job, only the one that gets 1 back may run it. Every claim increments the lease
+	 * token, which fences writes of previous owners.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.status = 'PROCESSING', j.workerId = :workerId, j.startedAt = :startedAt, "
+			+ "j.progressPercentage = 5, j.leaseExpiresAt = :leaseExpiresAt, "
+			+ "j.leaseToken = COALESCE(j.leaseToken, 0) + 1, j.attempts = COALESCE(j.attempts, 0) + 1 "
+			+ "WHERE j.id = :id AND j.status = 'QUEUED'")
+	int claim(@Param("id") String id, @Param("workerId") String workerId, @Param("startedAt") LocalDateTime startedAt,
+			@Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+	@Query("SELECT j.leaseToken FROM TranscodingJob j WHERE j.id = :id AND j.workerId = :workerId")
+	Long findLeaseToken(@Param("id") String id, @Param("workerId") String workerId);
+
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("SELECT j FROM TranscodingJob j WHERE j.id = :id")
+	Optional<TranscodingJob> findByIdForUpdate(@Param("id") String id);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.leaseExpiresAt = :leaseExpiresAt "
+			+ "WHERE j.id = :id AND j.leaseToken = :token AND j.status = 'PROCESSING'")
+	int renewLease(@Param("id") String id, @Param("token") Long token,
+			@Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+	/**
+	 * Hands an unfinished claim back to the queue without counting it as an attempt.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.status = 'QUEUED', j.workerId = NULL, j.startedAt = NULL, "
+			+ "j.progressPercentage = 0, j.leaseExpiresAt = NULL, j.attempts = j.attempts - 1 "
+			+ "WHERE j.id = :id AND j.status = 'PROCESSING' AND j.leaseToken = :token")
+	int unclaim(@Param("id") String id, @Param("token") Long token);
+
+	/**
+	 * Running jobs whose owner stopped renewing its lease. Parents of distributed segments are not
+	 * leased while they wait on their sub-jobs, only once their stitch was claimed.
+	 */
+	@Query("SELECT j FROM TranscodingJob j WHERE j.status = 'PROCESSING' "
+			+ "AND (j.jobType IS NULL OR j.jobType <> 'SEGMENTED' OR j.progressPercentage >= 90) "
+			+ "AND j.leaseExpiresAt < :now")
+	List<TranscodingJob> findExpiredLeases(@Param("now") LocalDateTime now);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.status = 'QUEUED', j.workerId = NULL, j.startedAt = NULL, "
+			+ "j.progressPercentage = 0, j.leaseExpiresAt = NULL "
+			+ "WHERE j.id = :id AND j.status = 'PROCESSING' AND j.leaseToken = :token AND j.leaseExpiresAt < :now")
+	int requeueExpired(@Param("id") String id, @Param("token") Long token, @Param("now") LocalDateTime now);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.status = 'FAILED', j.errorMessage = :message, j.completedAt = :now, "
+			+ "j.leaseExpiresAt = NULL "
+			+ "WHERE j.id = :id AND j.status = 'PROCESSING' AND j.leaseToken = :token AND j.leaseExpiresAt < :now")
+	int failExpired(@Param("id") String id, @Param("token") Long token, @Param("message") String message,
+			@Param("now") LocalDateTime now);
+
+	/**
+	 * Rolls finished segments up into their parent's progress. It only ever moves forward, so a late
+	 * roll-up cannot take back the stitch claim.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.progressPercentage = :progress WHERE j.id = :id AND j.status = 'PROCESSING' "
+			+ "AND j.leaseToken = :token AND j.progressPercentage < :progress")
+	int advanceSegmentedProgress(@Param("id") String id, @Param("token") Long token, @Param("progress") int progress);
+
+	/**
+	 * Writes the progress columns only, instead of merging the whole entity, on behalf of the lease holder.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.progressPercentage = :progress, j.fps = :fps, j.speed = :speed, "
+			+ "j.etaSeconds = :etaSeconds WHERE j.id = :id AND j.status = 'PROCESSING' AND j.leaseToken = :token")
+	int updateEncodeProgress(@Param("id") String id, @Param("token") Long token, @Param("progress") int progress,
+			@Param("fps") Double fps, @Param("speed") Double speed, @Param("etaSeconds") Long etaSeconds);
+
+	/**
+	 * Lets exactly one worker win the right to stitch a segmented job once its last segment finished.
+	 * The parent is leased again from here on, so a stitcher that dies is noticed by the reaper.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.progressPercentage = 90, j.workerId = :workerId, "
+			+ "j.leaseExpiresAt = :leaseExpiresAt WHERE j.id = :id AND j.status = 'PROCESSING' "
+			+ "AND j.progressPercentage < 90")
+	int claimSegmentStitch(@Param("id") String id, @Param("workerId") String workerId,
+			@Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+	/**
+	 * Takes over the stitch of a segmented job whose stitcher's lease expired, under a new token. Its
+	 * segments are done, so only the stitch is retried.
+	 */
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.workerId = :workerId, j.leaseExpiresAt = :leaseExpiresAt, "
+			+ "j.leaseToken = COALESCE(j.leaseToken, 0) + 1, j.attempts = COALESCE(j.attempts, 0) + 1 "
+			+ "WHERE j.id = :id AND j.status = 'PROCESSING' AND j.leaseToken = :token AND j.leaseExpiresAt < :now")
+	int reclaimStitch(@Param("id") String id, @Param("token") Long token, @Param("workerId") String workerId,
+			@Param("now") LocalDateTime now, @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.status = 'FAILED', j.errorMessage = :message, j.completedAt = :completedAt "
+			+ "WHERE j.id = :id AND j.status = 'PROCESSING'")
+	int failIfProcessing(@Param("id") String id, @Param("message") String message,
+			@Param("completedAt") LocalDateTime completedAt);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.status = 'CANCELLED' WHERE j.parentJobId = :parentJobId AND j.status = 'QUEUED'")
+	int cancelQueuedSegments(@Param("parentJobId") String parentJobId);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.status = 'CANCELLED', j.completedAt = :completedAt, j.leaseExpiresAt = NULL "
+			+ "WHERE j.id = :id AND j.status IN ('QUEUED', 'PROCESSING')")
+	int cancelIfActive(@Param("id") String id, @Param("completedAt") LocalDateTime completedAt);
+
+	@Transactional
+	@Modifying
+	@Query("UPDATE TranscodingJob j SET j.status = 'CANCELLED', j.completedAt = :completedAt, j.leaseExpiresAt = NULL "
+			+ "WHERE j.parentJobId = :parentJobId AND j.status IN ('QUEUED', 'PROCESSING')")
+	int cancelActiveSegments(@Param("parentJobId") String parentJobId, @Param("completedAt") LocalDateTime completedAt);
 }
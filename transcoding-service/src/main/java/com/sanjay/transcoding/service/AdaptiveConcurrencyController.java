@@ -0,0 +1,161 @@
+package com.sanjay.transcoding.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sizes the encode budget at runtime with AIMD. While encodes are waiting and the CPU has headroom
+ * the budget grows by a step; when the host is overloaded it shrinks by a factor. A step up that did
+ * not raise the aggregate encode fps is taken back, since more parallel encodes than the host can
+ * feed only add contention. A step is only judged once it has let another encode in; until then,
+ * e.g. when the waiting encode needs more than one step, the budget keeps growing.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AdaptiveConcurrencyController {
+
+    private enum Action { INCREASE, DECREASE, REVERT, HOLD }
+
+    private final JobPipeline pipeline;
+    private final ProgressTracker progressTracker;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transcoding.adaptive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${transcoding.adaptive.min-units:1}")
+    private double minUnits;
+
+    /** 0 means twice the number of cores. */
+    @Value("${transcoding.adaptive.max-units:0}")
+    private double maxUnits;
+
+    @Value("${transcoding.adaptive.step-units:0.5}")
+    private double stepUnits;
+
+    @Value("${transcoding.adaptive.decrease-factor:0.8}")
+    private double decreaseFactor;
+
+    @Value("${transcoding.adaptive.target-cpu:0.85}")
+    private double targetCpu;
+
+    @Value("${transcoding.adaptive.max-cpu:0.95}")
+    private double maxCpu;
+
+    @Value("${transcoding.adaptive.max-load-per-core:1.5}")
+    private double maxLoadPerCore;
+
+    @Value("${transcoding.adaptive.min-fps-gain:0.05}")
+    private double minFpsGain;
+
+    private final com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final Map<Action, Counter> decisions = new EnumMap<>(Action.class);
+    private volatile double cpu;
+    private volatile double loadPerCore;
+    private volatile double fps;
+    private Action lastAction = Action.HOLD;
+    private double fpsBeforeIncrease;
+    private long admittedBeforeIncrease;
+    private double increasedBy;
+
+    @PostConstruct
+    public void init() {
+        if (maxUnits <= 0) {
+            maxUnits = 2.0 * Runtime.getRuntime().availableProcessors();
+        }
+        for (Action action : Action.values()) {
+            decisions.put(action, Counter.builder("transcoding.adaptive.decisions")
+                    .tag("action", action.name().toLowerCase(Locale.ROOT))
+                    .description("Encode budget adjustments made by the adaptive controller").register(meterRegistry));
+        }
+        Gauge.builder("transcoding.adaptive.encode.units", pipeline, JobPipeline::encodeUnits)
+                .description("Current encode budget in CPU units").register(meterRegistry);
+        Gauge.builder("transcoding.adaptive.cpu", this, controller -> controller.cpu)
+                .description("Host CPU utilization seen by the controller").register(meterRegistry);
+        Gauge.builder("transcoding.adaptive.load.per.core", this, controller -> controller.loadPerCore)
+                .description("One-minute load average per core seen by the controller").register(meterRegistry);
+        Gauge.builder("transcoding.adaptive.fps", this, controller -> controller.fps)
+                .description("Aggregate encode fps seen by the controller").register(meterRegistry);
+        log.info("AdaptiveConcurrencyController initialized: enabled={}, units={}..{}, targetCpu={}, maxCpu={}",
+                enabled, minUnits, maxUnits, targetCpu, maxCpu);
+    }
+
+    @Scheduled(fixedDelayString = "${transcoding.adaptive.interval-ms:15000}",
+            initialDelayString = "${transcoding.adaptive.interval-ms:15000}")
+    public void adjust() {
+        if (!enabled) {
+            return;
+        }
+        double loadAverage = os.getSystemLoadAverage();
+        adjust(os.getCpuLoad(), loadAverage < 0 ? 0 : loadAverage / Runtime.getRuntime().availableProcessors(),
+                progressTracker.totalFps());
+    }
+
+    void adjust(double cpu, double loadPerCore, double fps) {
+        this.cpu = cpu;
+        this.loadPerCore = loadPerCore;
+        this.fps = fps;
+        if (cpu < 0) {
+            // not measured yet
+            return;
+        }
+
+        double units = pipeline.encodeUnits();
+        boolean demand = pipeline.waiting(JobPipeline.Stage.ENCODE) > 0;
+        long admitted = pipeline.admitted(JobPipeline.Stage.ENCODE);
+        boolean increasing = lastAction == Action.INCREASE;
+        boolean stepAdmitted = admitted > admittedBeforeIncrease;
+        Action action;
+        double target;
+        if (cpu > maxCpu || loadPerCore > maxLoadPerCore) {
+            action = Action.DECREASE;
+            target = units * decreaseFactor;
+        } else if (increasing && !stepAdmitted && demand && cpu < targetCpu) {
+            // nothing got in yet, grow further against the fps from before the first step
+            action = Action.INCREASE;
+            target = units + stepUnits;
+        } else if (increasing && stepAdmitted && fps < fpsBeforeIncrease * (1 + minFpsGain)) {
+            action = Action.REVERT;
+            target = units - increasedBy;
+        } else if (demand && cpu < targetCpu) {
+            action = Action.INCREASE;
+            target = units + stepUnits;
+            fpsBeforeIncrease = fps;
+            admittedBeforeIncrease = admitted;
+            increasedBy = 0;
+        } else {
+            action = Action.HOLD;
+            target = units;
+        }
+
+        target = Math.max(minUnits, Math.min(maxUnits, target));
+        if (target == units && action != Action.HOLD) {
+            action = Action.HOLD;
+        }
+        if (action == Action.INCREASE) {
+            increasedBy += target - units;
+        }
+        lastAction = action;
+        decisions.get(action).increment();
+        if (action != Action.HOLD) {
+            pipeline.resizeEncodeUnits(target);
+            log.info("Encode budget {} from {} to {} units (cpu={}, load/core={}, fps={})",
+                    action.name().toLowerCase(Locale.ROOT), units, pipeline.encodeUnits(),
+                    String.format("%.2f", cpu), String.format("%.2f", loadPerCore), String.format("%.1f", fps));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.dto.WorkerInfo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-peak windows for bulk work. LOW priority jobs are held undispatched outside the configured
+ * windows, so back-catalogue re-encodes do not compete with interactive uploads at peak hours. Inside
+ * a window they are dispatched like any other job; outside one they are let through only while the
+ * fleet is below the utilization threshold, and only as many as fit under it.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class BatchWindow {
+
+    private final WorkerRegistry workerRegistry;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transcoding.batch-window.enabled:false}")
+    private boolean enabled;
+
+    /** {@code HH:mm-HH:mm} ranges, comma separated; a range may wrap past midnight. */
+    @Value("${transcoding.batch-window.windows:00:00-06:00}")
+    private String windowsProperty;
+
+    /** Time zone the windows are in; the system zone when empty. */
+    @Value("${transcoding.batch-window.zone:}")
+    private String zoneProperty;
+
+    /** Fleet utilization, outstanding over allowed concurrent jobs, below which LOW jobs run anyway. */
+    @Value("${transcoding.batch-window.utilization-threshold:0.5}")
+    private double utilizationThreshold;
+
+    private final List<LocalTime[]> windows = new ArrayList<>();
+    private ZoneId zone;
+
+    @PostConstruct
+    public void init() {
+        zone = zoneProperty.isBlank() ? ZoneId.systemDefault() : ZoneId.of(zoneProperty.trim());
+        for (String entry : windowsProperty.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] bounds = entry.trim().split("-");
+            if (bounds.length != 2) {
+                throw new IllegalStateException("Invalid batch window '" + entry.trim() + "', expected HH:mm-HH:mm");
+            }
+            windows.add(new LocalTime[] {parseTime(bounds[0]), parseTime(bounds[1])});
+        }
+        Gauge.builder("transcoding.batch.window.open", this, window -> window.inWindow() ? 1 : 0)
+                .description("Whether LOW priority jobs are inside an off-peak window").register(meterRegistry);
+        Gauge.builder("transcoding.batch.utilization", this, BatchWindow::utilization)
+                .description("Fleet utilization the off-peak threshold is compared with").register(meterRegistry);
+        log.info("BatchWindow initialized: enabled={}, windows={} ({}), utilizationThreshold={}",
+                enabled, windowsProperty, zone, utilizationThreshold);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return whether {@code job} has to wait for an off-peak window or for spare capacity
+     */
+    public boolean holds(TranscodingJob job) {
+        return job.getPriority() == TranscodingJob.JobPriority.LOW && allowance(0) == 0;
+    }
+
+    /**
+     * @param inFlight jobs dispatched but not yet taken by a worker
+     * @return how many LOW jobs may be dispatched now
+     */
+    public long allowance(long inFlight) {
+        if (!enabled || inWindow()) {
+            return Long.MAX_VALUE;
+        }
+        List<WorkerInfo> fleet = fleet();
+        long busy = busy(fleet) + inFlight;
+        // only up to the threshold, so a burst of LOW jobs does not push peak traffic back in the queue
+        return Math.max(0, (long) Math.floor(capacity(fleet) * utilizationThreshold) - busy);
+    }
+
+    public boolean inWindow() {
+        return inWindow(ZonedDateTime.now(zone).toLocalTime());
+    }
+
+    boolean inWindow(LocalTime now) {
+        for (LocalTime[] window : windows) {
+            boolean inside = window[0].isBefore(window[1])
+                    ? !now.isBefore(window[0]) && now.isBefore(window[1])
+                    : !now.isBefore(window[0]) || now.isBefore(window[1]);
+            if (inside) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double utilization() {
+        List<WorkerInfo> fleet = fleet();
+        long capacity = capacity(fleet);
+        return capacity > 0 ? (double) busy(fleet) / capacity : 0;
+    }
+
+    private static long capacity(List<WorkerInfo> fleet) {
+        return fleet.stream()
+                .mapToLong(worker -> worker.getMaxConcurrentJobs() != null ? worker.getMaxConcurrentJobs() : 0)
+                .sum();
+    }
+
+    private static long busy(List<WorkerInfo> fleet) {
+        return fleet.stream()
+                .mapToLong(worker -> worker.getOutstandingJobs() != null ? worker.getOutstandingJobs() : 0)
+                .sum();
+    }
+
+    /**
+     * @return the live workers, or this worker alone when the registry is unavailable
+     */
+    private List<WorkerInfo> fleet() {
+        List<WorkerInfo> workers = workerRegistry.workers();
+        return workers.isEmpty() ? List.of(workerRegistry.describe()) : workers;
+    }
+
+    private static LocalTime parseTime(String value) {
+        String time = value.trim();
+        // 24:00 closes a window at midnight
+        return "24:00".equals(time) ? LocalTime.MAX : LocalTime.parse(time);
+    }
+}
@@ -0,0 +1,157 @@
+package com.sanjay.transcoding.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pauses the jobs listeners while this worker holds as many unfinished jobs as it is allowed to, and
+ * resumes them once enough of them have finished. Jobs that stay in Kafka meanwhile go to other
+ * members of the consumer group instead of piling up here; jobs sent to this worker's own topic wait
+ * there.
+ * <p>
+ * Records finish out of order, but only the highest offset below which every record of its partition
+ * has finished is acknowledged, so a crash hands every unfinished job back to the group.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ConsumerBackPressure {
+
+    public static final String JOBS_LISTENER_ID = "transcoding-jobs-listener";
+    public static final String DIRECT_JOBS_LISTENER_ID = "transcoding-direct-jobs-listener";
+
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transcoding.queue.capacity:16}")
+    private int capacity;
+
+    @Value("${transcoding.queue.resume-threshold:12}")
+    private int resumeThreshold;
+
+    /** Outstanding jobs at which jobs routed here by input affinity are passed on to other workers. */
+    @Value("${transcoding.dispatch.spill-threshold:${transcoding.processing.max-concurrent-jobs:4}}")
+    private int spillThreshold;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    /** Records taken from each partition and not yet acknowledged, by offset; true once finished. */
+    private final Map<TopicPartition, NavigableMap<Long, PendingRecord>> pending = new HashMap<>();
+    private Counter pauses;
+    private Counter spills;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("transcoding.intake.outstanding", outstanding, AtomicInteger::get)
+                .description("Jobs taken from Kafka and not yet acknowledged").register(meterRegistry);
+        pauses = Counter.builder("transcoding.intake.pauses")
+                .description("Times the jobs listener was paused for lack of local capacity").register(meterRegistry);
+        spills = Counter.builder("transcoding.intake.spills")
+                .description("Jobs routed here by input affinity and passed on because this worker was saturated")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Tracks a record taken from Kafka; it is acknowledged through {@link #completed} once it and every
+     * record before it on its partition are done.
+     */
+    public synchronized void received(ConsumerRecord<?, ?> record, Acknowledgment acknowledgment) {
+        pending.computeIfAbsent(new TopicPartition(record.topic(), record.partition()), tp -> new TreeMap<>())
+                .put(record.offset(), new PendingRecord(acknowledgment));
+    }
+
+    public synchronized void completed(ConsumerRecord<?, ?> record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        NavigableMap<Long, PendingRecord> records = pending.get(partition);
+        PendingRecord finished = records == null ? null : records.get(record.offset());
+        if (finished == null) {
+            return;
+        }
+        finished.done = true;
+        Acknowledgment contiguous = null;
+        while (!records.isEmpty() && records.firstEntry().getValue().done) {
+            contiguous = records.pollFirstEntry().getValue().acknowledgment;
+        }
+        if (records.isEmpty()) {
+            pending.remove(partition);
+        }
+        if (contiguous != null) {
+            // commits this offset + 1, covering every earlier record of the partition
+            contiguous.acknowledge();
+        }
+    }
+
+    public void accepted() {
+        if (outstanding.incrementAndGet() >= capacity) {
+            pause();
+        }
+    }
+
+    public int outstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return whether a job accepted now would have to wait for the jobs already taken
+     */
+    public boolean saturated() {
+        return outstanding.get() >= spillThreshold;
+    }
+
+    public void spilled() {
+        spills.increment();
+    }
+
+    public void finished() {
+        if (outstanding.decrementAndGet() <= resumeThreshold) {
+            resume();
+        }
+    }
+
+    private synchronized void pause() {
+        for (String listenerId : List.of(JOBS_LISTENER_ID, DIRECT_JOBS_LISTENER_ID)) {
+            MessageListenerContainer container = listenerRegistry.getListenerContainer(listenerId);
+            if (container != null && !container.isPauseRequested()) {
+                container.pause();
+                pauses.increment();
+                log.info("Paused {}: {} jobs outstanding (capacity {})", listenerId, outstanding.get(), capacity);
+            }
+        }
+    }
+
+    private synchronized void resume() {
+        for (String listenerId : List.of(JOBS_LISTENER_ID, DIRECT_JOBS_LISTENER_ID)) {
+            MessageListenerContainer container = listenerRegistry.getListenerContainer(listenerId);
+            if (container != null && container.isPauseRequested()) {
+                container.resume();
+                log.info("Resumed {}: {} jobs outstanding", listenerId, outstanding.get());
+            }
+        }
+    }
+
+    private static class PendingRecord {
+        private final Acknowledgment acknowledgment;
+        private boolean done;
+
+        private PendingRecord(Acknowledgment acknowledgment) {
+            this.acknowledgment = acknowledgment;
+        }
+    }
+}
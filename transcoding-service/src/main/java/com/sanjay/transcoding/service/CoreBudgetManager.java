@@ -0,0 +1,427 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands each running encode a disjoint set of cores, sized by its CPU units, instead of letting every
+ * ffmpeg spread over the whole host. ffmpeg is started pinned to its cores with {@code taskset}, with a
+ * matching {@code -threads}, and niced by job priority. When an encode finishes its cores go to the
+ * encodes that got fewer than they asked for; when one starts and no core is free, the largest
+ * allocations give up cores. Running processes are re-pinned in both cases. Every encode gets at least
+ * one core: while each core is held by an encode of its own, the next one waits for a core to free up.
+ * <p>
+ * Cores are those the process may run on, e.g. 8-11 in a cpuset-restricted container. When that list
+ * cannot be read or {@code taskset} cannot pin to it, encodes still get their thread counts but are
+ * not pinned.
+ * <p>
+ * A job running several ffmpeg processes side by side, e.g. local segments, gives each of them a
+ * {@linkplain #slice slice} of its cores, so that they do not all run the full thread count on the same cores.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CoreBudgetManager {
+
+    private static final Map<TranscodingJob.JobPriority, Integer> NICENESS = Map.of(
+            TranscodingJob.JobPriority.URGENT, 0,
+            TranscodingJob.JobPriority.HIGH, 5,
+            TranscodingJob.JobPriority.NORMAL, 10,
+            TranscodingJob.JobPriority.LOW, 15
+    );
+
+    private static final Map<TranscodingJob.JobPriority, Integer> IO_PRIORITY = Map.of(
+            TranscodingJob.JobPriority.URGENT, 0,
+            TranscodingJob.JobPriority.HIGH, 2,
+            TranscodingJob.JobPriority.NORMAL, 4,
+            TranscodingJob.JobPriority.LOW, 7
+    );
+
+    private final JobPipeline pipeline;
+    private final JobCancellationRegistry cancellations;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transcoding.cores.enabled:true}")
+    private boolean enabled;
+
+    /** Cores kept away from encodes, for the JVM, uploads and the OS. */
+    @Value("${transcoding.cores.reserved:0}")
+    private int reservedCores;
+
+    private final Map<String, Allocation> allocations = new ConcurrentHashMap<>();
+    private final ThreadLocal<Slice> slices = new ThreadLocal<>();
+    private final BitSet free = new BitSet();
+    private int totalCores;
+    private boolean pinning;
+    private String taskset;
+    private String nice;
+    private String ionice;
+    private Counter rebalances;
+
+    @PostConstruct
+    public void init() {
+        BitSet allowed = allowedCpus();
+        taskset = findTool("taskset");
+        nice = findTool("nice");
+        ionice = findTool("ionice");
+        pinning = allowed != null && taskset != null;
+        if (allowed == null) {
+            allowed = new BitSet();
+            allowed.set(0, Runtime.getRuntime().availableProcessors());
+        }
+        // a CPU quota can leave fewer usable cores than the cpuset lists
+        int cores = Math.min(allowed.cardinality(), Runtime.getRuntime().availableProcessors());
+        totalCores = Math.max(1, cores - reservedCores);
+        // reserved cores are the lowest ones, where interrupts and the JVM tend to run
+        for (int cpu = allowed.previousSetBit(allowed.length() - 1); cpu >= 0 && free.cardinality() < totalCores;
+             cpu = allowed.previousSetBit(cpu - 1)) {
+            free.set(cpu);
+        }
+        if (pinning && !canPin(free.nextSetBit(0))) {
+            log.warn("taskset cannot pin to cpu {}, running encodes unpinned", free.nextSetBit(0));
+            pinning = false;
+        }
+        Gauge.builder("transcoding.cores.free", this, manager -> manager.freeCores())
+                .description("Cores not allocated to any encode").register(meterRegistry);
+        Gauge.builder("transcoding.cores.allocated", allocations, Map::size)
+                .description("Encodes running with a core allocation").register(meterRegistry);
+        rebalances = Counter.builder("transcoding.cores.rebalances")
+                .description("Running encodes re-pinned to a different core set").register(meterRegistry);
+        log.info("CoreBudgetManager initialized: enabled={}, cores={} {}, reserved={}, pinning={}, nice={}, ionice={}",
+                enabled, totalCores, free, reservedCores, pinning, nice != null, ionice != null);
+    }
+
+    /**
+     * Allocates cores for the current job's encode of {@code units} CPU units until the allocation is closed.
+     *
+     * @throws InterruptedException when interrupted while waiting for a core
+     */
+    public Allocation allocate(TranscodingJob job, double units) throws InterruptedException {
+        Allocation allocation = new Allocation(job.getId(), priorityOf(job), desiredCores(units));
+        if (!enabled) {
+            return allocation;
+        }
+        List<Allocation> repinned = new ArrayList<>();
+        synchronized (this) {
+            take(allocation, allocation.desired);
+            int fairShare = Math.max(1, totalCores / (allocations.size() + 1));
+            while (allocation.cores.cardinality() < Math.min(allocation.desired, fairShare)) {
+                Allocation donor = allocations.values().stream()
+                        .filter(candidate -> candidate.cores.cardinality() > fairShare)
+                        .max(Comparator.comparingInt(candidate -> candidate.cores.cardinality()))
+                        .orElse(null);
+                if (donor == null) {
+                    break;
+                }
+                int core = donor.cores.previousSetBit(donor.cores.length() - 1);
+                donor.cores.clear(core);
+                allocation.cores.set(core);
+                if (!repinned.contains(donor)) {
+                    repinned.add(donor);
+                }
+            }
+            allocations.put(job.getId(), allocation);
+            try {
+                while (allocation.cores.isEmpty()) {
+                    // the donors above leave a core unless every core runs an encode of one core; running
+                    // unpinned would only oversubscribe them
+                    wait(1000);
+                    cancellations.throwIfCancelled();
+                }
+            } catch (InterruptedException | RuntimeException e) {
+                allocations.remove(job.getId(), allocation);
+                free.or(allocation.cores);
+                notifyAll();
+                throw e;
+            }
+            // fixed at start, ffmpeg cannot change its thread count while running
+            allocation.threads = allocation.cores.cardinality();
+        }
+        repinned.forEach(this::repin);
+        log.debug("Job {} got cores {} for {} units", job.getId(), allocation.cores, units);
+        return allocation;
+    }
+
+    /**
+     * @return the encoder thread count for the current job, or 0 when it has no allocation
+     */
+    public int threads() {
+        Allocation allocation = current();
+        if (allocation == null) {
+            return 0;
+        }
+        Slice slice = slices.get();
+        return slice != null ? Math.max(1, allocation.threads / slice.count()) : allocation.threads;
+    }
+
+    /**
+     * Confines the ffmpeg processes the calling thread starts for the current job to slice {@code index}
+     * of {@code count} of the job's cores, with a matching share of its threads, until the binding is closed.
+     * Slices are disjoint while the job has at least {@code count} cores.
+     */
+    public Binding slice(int index, int count) {
+        Slice previous = slices.get();
+        slices.set(new Slice(index, count));
+        return () -> {
+            if (previous != null) {
+                slices.set(previous);
+            } else {
+                slices.remove();
+            }
+        };
+    }
+
+    /**
+     * Prefixes an ffmpeg command with the current job's core pinning and priority.
+     */
+    public List<String> wrap(List<String> command) {
+        Allocation allocation = current();
+        if (allocation == null) {
+            return command;
+        }
+        List<String> wrapped = new ArrayList<>();
+        if (ionice != null) {
+            wrapped.addAll(List.of(ionice, "-c", "2", "-n", String.valueOf(IO_PRIORITY.get(allocation.priority))));
+        }
+        if (nice != null) {
+            wrapped.addAll(List.of(nice, "-n", String.valueOf(NICENESS.get(allocation.priority))));
+        }
+        String cpuList = allocation.cpuList(slices.get());
+        if (pinning && cpuList != null) {
+            wrapped.addAll(List.of(taskset, "-c", cpuList));
+        }
+        wrapped.addAll(command);
+        return wrapped;
+    }
+
+    /**
+     * Remembers a process started for the current job, so that it can be re-pinned later.
+     */
+    public void attach(Process process) {
+        Allocation allocation = current();
+        if (allocation != null) {
+            Slice slice = slices.get();
+            allocation.processes.put(process, slice != null ? slice : Slice.WHOLE);
+        }
+    }
+
+    private void release(Allocation allocation) {
+        if (!enabled) {
+            return;
+        }
+        List<Allocation> repinned = new ArrayList<>();
+        synchronized (this) {
+            if (!allocations.remove(allocation.jobId, allocation)) {
+                return;
+            }
+            free.or(allocation.cores);
+            // encodes waiting for their first core go first
+            allocations.values().stream()
+                    .filter(candidate -> candidate.cores.cardinality() < candidate.desired)
+                    .sorted(Comparator.comparing((Allocation candidate) -> !candidate.cores.isEmpty())
+                            .thenComparingInt(candidate -> candidate.cores.cardinality() - candidate.desired))
+                    .forEach(candidate -> {
+                        if (take(candidate, candidate.desired - candidate.cores.cardinality()) > 0) {
+                            repinned.add(candidate);
+                        }
+                    });
+            notifyAll();
+        }
+        repinned.forEach(this::repin);
+    }
+
+    private int take(Allocation allocation, int count) {
+        int taken = 0;
+        for (int core = free.nextSetBit(0); core >= 0 && taken < count; core = free.nextSetBit(core + 1)) {
+            free.clear(core);
+            allocation.cores.set(core);
+            taken++;
+        }
+        return taken;
+    }
+
+    private void repin(Allocation allocation) {
+        if (!pinning) {
+            return;
+        }
+        for (Map.Entry<Process, Slice> entry : allocation.processes.entrySet()) {
+            Process process = entry.getKey();
+            String cpuList = allocation.cpuList(entry.getValue());
+            if (!process.isAlive() || cpuList == null) {
+                continue;
+            }
+            try {
+                Process pinning = new ProcessBuilder(taskset, "-a", "-p", "-c", cpuList, String.valueOf(process.pid()))
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .start();
+                if (!pinning.waitFor(5, TimeUnit.SECONDS)) {
+                    pinning.destroyForcibly();
+                }
+                rebalances.increment();
+            } catch (Exception e) {
+                log.warn("Could not re-pin ffmpeg {} of job {}: {}", process.pid(), allocation.jobId, e.getMessage());
+            }
+        }
+    }
+
+    private Allocation current() {
+        JobCancellationRegistry.Handle handle = cancellations.current();
+        return handle != null ? allocations.get(handle.getJobId()) : null;
+    }
+
+    private int desiredCores(double units) {
+        double budget = Math.max(1.0, pipeline.encodeUnits());
+        int cores = (int) Math.round(units * totalCores / budget);
+        return Math.max(1, Math.min(totalCores, cores));
+    }
+
+    private synchronized int freeCores() {
+        return free.cardinality();
+    }
+
+    private TranscodingJob.JobPriority priorityOf(TranscodingJob job) {
+        return job.getPriority() != null ? job.getPriority() : TranscodingJob.JobPriority.NORMAL;
+    }
+
+    /**
+     * @return the CPUs this process may run on, or null when they cannot be read
+     */
+    private static BitSet allowedCpus() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return parseCpuList(line.substring("Cpus_allowed_list:".length()));
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Could not read the allowed CPU list: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Parses a kernel CPU list such as {@code 0-3,8,10-11}.
+     *
+     * @return the CPUs, or null when the list is empty or malformed
+     */
+    static BitSet parseCpuList(String list) {
+        BitSet cpus = new BitSet();
+        try {
+            for (String range : list.trim().split(",")) {
+                String[] bounds = range.trim().split("-");
+                int from = Integer.parseInt(bounds[0].trim());
+                int to = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : from;
+                if (bounds.length > 2 || from < 0 || to < from) {
+                    return null;
+                }
+                cpus.set(from, to + 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return cpus.isEmpty() ? null : cpus;
+    }
+
+    private boolean canPin(int cpu) {
+        try {
+            Process probe = new ProcessBuilder(taskset, "-c", String.valueOf(cpu), "true")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!probe.waitFor(5, TimeUnit.SECONDS)) {
+                probe.destroyForcibly();
+                return false;
+            }
+            return probe.exitValue() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String findTool(String name) {
+        for (String directory : List.of("/usr/bin", "/bin", "/usr/sbin", "/sbin")) {
+            File tool = new File(directory, name);
+            if (tool.canExecute()) {
+                return tool.getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    @FunctionalInterface
+    public interface Binding extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private record Slice(int index, int count) {
+        private static final Slice WHOLE = new Slice(0, 1);
+    }
+
+    public class Allocation implements AutoCloseable {
+
+        private final String jobId;
+        private final TranscodingJob.JobPriority priority;
+        private final int desired;
+        private final BitSet cores = new BitSet();
+        private final Map<Process, Slice> processes = new ConcurrentHashMap<>();
+        private int threads;
+
+        private Allocation(String jobId, TranscodingJob.JobPriority priority, int desired) {
+            this.jobId = jobId;
+            this.priority = priority;
+            this.desired = desired;
+        }
+
+        private String cpuList(Slice slice) {
+            // cores are moved between allocations under the manager's lock
+            synchronized (CoreBudgetManager.this) {
+                int[] cpus = cores.stream().toArray();
+                if (cpus.length == 0) {
+                    return null;
+                }
+                int from = 0;
+                int to = cpus.length;
+                if (slice != null && slice.count() > 1) {
+                    if (cpus.length >= slice.count()) {
+                        from = slice.index() * cpus.length / slice.count();
+                        to = (slice.index() + 1) * cpus.length / slice.count();
+                    } else {
+                        // fewer cores than slices, some slices share a core
+                        from = slice.index() % cpus.length;
+                        to = from + 1;
+                    }
+                }
+                StringBuilder list = new StringBuilder();
+                for (int i = from; i < to; i++) {
+                    list.append(list.isEmpty() ? "" : ",").append(cpus[i]);
+                }
+                return list.toString();
+            }
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
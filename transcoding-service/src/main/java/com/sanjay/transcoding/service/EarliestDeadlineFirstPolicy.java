@@ -0,0 +1,29 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+
+/**
+ * Jobs with the earliest deadline run first. Jobs without a deadline are given one
+ * {@code default-slack-seconds} after they were accepted, so they still run once nothing more urgent
+ * is waiting.
+ */
+@Component
+@ConditionalOnProperty(name = "transcoding.scheduling.policy", havingValue = "edf")
+public class EarliestDeadlineFirstPolicy implements SchedulingPolicy {
+
+    @Value("${transcoding.scheduling.default-slack-seconds:3600}")
+    private long defaultSlackSeconds;
+
+    @Override
+    public long key(TranscodingJob job, long acceptedAtMillis, Double inputDurationSeconds) {
+        if (job.getDeadline() == null) {
+            return acceptedAtMillis + defaultSlackSeconds * 1000;
+        }
+        return job.getDeadline().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
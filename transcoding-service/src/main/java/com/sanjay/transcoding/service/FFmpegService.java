@@ -1,22 +1,36 @@
 package com.sanjay.transcoding.service;
 
 import com.sanjay.common.dto.TranscodingJobDto;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class FFmpegService {
 
+    private final JobCancellationRegistry cancellations;
+    private final ProgressTracker progressTracker;
+    private final CoreBudgetManager coreBudget;
+
     @Value("${transcoding.ffmpeg.path:/usr/bin/ffmpeg}")
     private String ffmpegPath;
 
@@ -35,6 +49,9 @@ public class FFmpegService {
     @Value("${transcoding.gpu.render-device:/dev/dri/renderD128}")
     private String renderDevice;
 
+    @Value("${transcoding.packaging.segment-duration-seconds:6}")
+    private int packagingSegmentSeconds;
+
     private static final long TRANSCODING_TIMEOUT_HOURS = 4;
 
     private static final Map<String, String> CPU_TO_NVIDIA_CODEC = Map.of(
@@ -59,6 +76,61 @@ public class FFmpegService {
         return "intel".equalsIgnoreCase(gpuType);
     }
 
+    private static final Map<String, String> FORMAT_TO_MUXER = Map.of(
+            "mkv", "matroska",
+            "ts", "mpegts"
+    );
+
+    /**
+     * Muxers that can be written to a non-seekable pipe. MP4/MOV only qualify
+     * when written as fragmented MP4, which {@link #transcodeStream} does.
+     */
+    private static final Set<String> STREAMABLE_MUXERS = Set.of(
+            "mp4", "mov", "matroska", "webm", "mpegts", "flv"
+    );
+
+    private static final Set<String> PACKAGED_FORMATS = Set.of("hls", "cmaf");
+
+    private static final String FRAGMENTED_MP4_FLAGS = "+frag_keyframe+empty_moov+default_base_moof";
+
+    /** A line of {@code ffmpeg -codecs}: capability flags, then the codec name. */
+    private static final Pattern CODEC_LINE = Pattern.compile("^\\s([D.])([E.])\\S{4}\\s+([a-z0-9_]+)\\s.*$");
+    private static final Pattern CODEC_ENCODERS = Pattern.compile("\\(encoders: ([^)]*)\\)");
+
+    /**
+     * Receives ffmpeg's stdout while a streaming transcode is running.
+     */
+    @FunctionalInterface
+    public interface StreamingOutputHandler {
+        void handle(InputStream ffmpegOutput) throws Exception;
+    }
+
+    /**
+     * Starts ffmpeg on behalf of the current job, which kills it when the job is cancelled.
+     */
+    private Process start(ProcessBuilder processBuilder) throws IOException {
+        processBuilder.command(coreBudget.wrap(processBuilder.command()));
+        Process process = processBuilder.start();
+        cancellations.track(process);
+        coreBudget.attach(process);
+        return process;
+    }
+
+    /**
+     * Sizes the encoder's thread pool to the cores the current job was given, instead of to the host.
+     */
+    private void addThreadOption(List<String> command) {
+        int threads = coreBudget.threads();
+        if (threads > 0) {
+            command.add("-threads");
+            command.add(String.valueOf(threads));
+        }
+    }
+
+    private static String cpuPreset(TranscodingJobDto.OutputSettingsDto settings) {
+        return settings.getPreset() != null && !settings.getPreset().isBlank() ? settings.getPreset() : "medium";
+    }
+
     private Map<String, String> getGpuCodecMap() {
         if (isNvidia()) return CPU_TO_NVIDIA_CODEC;
         if (isIntel()) return CPU_TO_QSV_CODEC;
@@ -66,6 +138,14 @@ public class FFmpegService {
     }
 
     public boolean transcode(File inputFile, File outputFile, TranscodingJobDto.OutputSettingsDto settings) {
+        return transcode(inputFile, outputFile, settings, false);
+    }
+
+    /**
+     * @param fragmentedOutput write MP4/MOV as fragmented MP4, which only ever appends to the output file
+     */
+    public boolean transcode(File inputFile, File outputFile, TranscodingJobDto.OutputSettingsDto settings,
+                             boolean fragmentedOutput) {
         try {
             if (!inputFile.exists()) {
                 log.error("Input file does not exist: {}", inputFile.getAbsolutePath());
@@ -73,22 +153,23 @@ public class FFmpegService {
             }
 
             boolean useGpu = gpuEnabled && isGpuModeRequested(settings);
-            List<String> command = buildFFmpegCommand(inputFile, outputFile, settings, useGpu);
+            List<String> command = buildFFmpegCommand(inputFile.getAbsolutePath(), outputFile.getAbsolutePath(),
+                    settings, useGpu, fragmentedOutput);
 
             log.info("Executing FFmpeg command (GPU={}): {}", useGpu, String.join(" ", command));
 
             ProcessBuilder processBuilder = new ProcessBuilder(command);
             processBuilder.redirectErrorStream(true);
 
-            Process process = processBuilder.start();
+            Process process = start(processBuilder);
 
             StringBuilder outputLog = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            try (ProgressTracker.Listener progress = progressTracker.listener();
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    outputLog.append(line).append("\n");
-                    if (line.contains("frame=") || line.contains("time=")) {
-                        log.debug("FFmpeg progress: {}", line.trim());
+                    if (!progress.accept(line) && outputLog.length() < 8000) {
+                        outputLog.append(line).append("\n");
                     }
                 }
             }
@@ -116,7 +197,7 @@ public class FFmpegService {
 
                 if (useGpu && exitCode != 0) {
                     log.warn("GPU transcoding failed (exit code {}), falling back to CPU for file: {}", exitCode, inputFile.getName());
-                    return transcodeCpuFallback(inputFile, outputFile, settings);
+                    return transcodeCpuFallback(inputFile, outputFile, settings, fragmentedOutput);
                 }
 
                 log.error("FFmpeg failed with exit code {} for file: {}\nOutput:\n{}", exitCode, inputFile.getName(), truncatedOutput);
@@ -133,21 +214,22 @@ public class FFmpegService {
         }
     }
 
-    private boolean transcodeCpuFallback(File inputFile, File outputFile, TranscodingJobDto.OutputSettingsDto settings) {
+    private boolean transcodeCpuFallback(File inputFile, File outputFile, TranscodingJobDto.OutputSettingsDto settings,
+                                         boolean fragmentedOutput) {
         try {
             log.info("CPU fallback: re-running transcoding with software codecs for {}", inputFile.getName());
-            List<String> command = buildFFmpegCommand(inputFile, outputFile, settings, false);
+            List<String> command = buildFFmpegCommand(inputFile.getAbsolutePath(), outputFile.getAbsolutePath(),
+                    settings, false, fragmentedOutput);
 
             ProcessBuilder processBuilder = new ProcessBuilder(command);
             processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
+            Process process = start(processBuilder);
 
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            try (ProgressTracker.Listener progress = progressTracker.listener();
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    if (line.contains("frame=") || line.contains("time=")) {
-                        log.debug("FFmpeg CPU fallback progress: {}", line.trim());
-                    }
+                    progress.accept(line);
                 }
             }
 
@@ -165,6 +247,437 @@ public class FFmpegService {
         }
     }
 
+    /**
+     * Transcodes without touching local disk: {@code input} is pumped into ffmpeg's stdin and
+     * ffmpeg's stdout is handed to {@code outputHandler}. Software codecs only, since a failed
+     * GPU run cannot be replayed from a consumed stream.
+     */
+    public boolean transcodeStream(InputStream input, TranscodingJobDto.OutputSettingsDto settings,
+                                   StreamingOutputHandler outputHandler) {
+        Process process = null;
+        try {
+            List<String> command = buildFFmpegCommand("pipe:0", "pipe:1", settings, false, true);
+            log.info("Executing streaming FFmpeg command: {}", String.join(" ", command));
+
+            process = start(new ProcessBuilder(command));
+            Process running = process;
+
+            StringBuilder errorLog = new StringBuilder();
+            ProgressTracker.Listener progress = progressTracker.listener();
+            Thread stderrReader = Thread.ofVirtual().name("ffmpeg-stderr").start(() -> {
+                try (progress;
+                     BufferedReader reader = new BufferedReader(new InputStreamReader(running.getErrorStream()))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!progress.accept(line) && errorLog.length() < 8000) {
+                            errorLog.append(line).append("\n");
+                        }
+                    }
+                } catch (IOException e) {
+                    log.debug("FFmpeg stderr closed: {}", e.getMessage());
+                }
+            });
+
+            Thread stdinWriter = Thread.ofVirtual().name("ffmpeg-stdin").start(() -> {
+                try (OutputStream stdin = running.getOutputStream()) {
+                    input.transferTo(stdin);
+                } catch (IOException e) {
+                    // ffmpeg closes stdin early when it fails or has read everything it needs
+                    log.debug("FFmpeg stdin closed: {}", e.getMessage());
+                }
+            });
+
+            try (InputStream stdout = process.getInputStream()) {
+                outputHandler.handle(stdout);
+            }
+
+            boolean finished = process.waitFor(TRANSCODING_TIMEOUT_HOURS, TimeUnit.HOURS);
+            if (!finished) {
+                log.error("Streaming FFmpeg process timed out after {} hours", TRANSCODING_TIMEOUT_HOURS);
+                process.destroyForcibly();
+                return false;
+            }
+            stdinWriter.join();
+            stderrReader.join();
+
+            int exitCode = process.exitValue();
+            if (exitCode != 0) {
+                String truncatedOutput = errorLog.substring(0, Math.min(errorLog.length(), 2000));
+                log.error("Streaming FFmpeg failed with exit code {}\nOutput:\n{}", exitCode, truncatedOutput);
+                return false;
+            }
+            log.info("Streaming transcoding completed");
+            return true;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Streaming FFmpeg transcoding interrupted");
+            return false;
+        } catch (Exception e) {
+            log.error("Error during streaming transcoding: {}", e.getMessage(), e);
+            return false;
+        } finally {
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Encodes an ABR ladder from a single decode: the decoded video is fanned out with a
+     * {@code split} filter and each branch is scaled and encoded into its own output file.
+     */
+    public boolean transcodeLadder(File inputFile, TranscodingJobDto.OutputSettingsDto settings,
+                                   List<TranscodingJobDto.RenditionDto> renditions, List<File> outputFiles) {
+        if (!inputFile.exists()) {
+            log.error("Input file does not exist: {}", inputFile.getAbsolutePath());
+            return false;
+        }
+
+        List<String> command = buildLadderCommand(inputFile, settings, renditions, outputFiles);
+        if (!runFFmpeg(command, "ladder of " + renditions.size() + " renditions for " + inputFile.getName())) {
+            return false;
+        }
+
+        for (File outputFile : outputFiles) {
+            if (!outputFile.exists() || outputFile.length() == 0) {
+                log.error("Ladder rendition missing or empty: {}", outputFile.getAbsolutePath());
+                return false;
+            }
+        }
+        log.info("Ladder transcoding completed: {} -> {} renditions", inputFile.getName(), outputFiles.size());
+        return true;
+    }
+
+    /**
+     * Machine-readable progress on stderr instead of the status line; see {@link ProgressTracker}.
+     */
+    private void addProgressOutput(List<String> command) {
+        command.add("-nostats");
+        command.add("-progress");
+        command.add("pipe:2");
+    }
+
+    private List<String> buildLadderCommand(File inputFile, TranscodingJobDto.OutputSettingsDto settings,
+                                            List<TranscodingJobDto.RenditionDto> renditions, List<File> outputFiles) {
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-y");
+        addProgressOutput(command);
+        command.add("-i");
+        command.add(inputFile.getAbsolutePath());
+
+        StringBuilder filterGraph = new StringBuilder("[0:v]split=").append(renditions.size());
+        for (int i = 0; i < renditions.size(); i++) {
+            filterGraph.append("[v").append(i).append("]");
+        }
+        for (int i = 0; i < renditions.size(); i++) {
+            String res = renditions.get(i).getResolution();
+            filterGraph.append(";[v").append(i).append("]");
+            if (res != null && res.contains("x")) {
+                String[] parts = res.split("x");
+                filterGraph.append("scale=").append(parts[0]).append(":").append(parts[1]);
+            } else {
+                filterGraph.append("null");
+            }
+            filterGraph.append("[out").append(i).append("]");
+        }
+        command.add("-filter_complex");
+        command.add(filterGraph.toString());
+
+        for (int i = 0; i < renditions.size(); i++) {
+            TranscodingJobDto.RenditionDto rendition = renditions.get(i);
+            command.add("-map");
+            command.add("[out" + i + "]");
+            command.add("-map");
+            command.add("0:a?");
+
+            if (settings.getVideoCodec() != null && !settings.getVideoCodec().isEmpty()) {
+                command.add("-c:v");
+                command.add(settings.getVideoCodec());
+            }
+            String videoBitrate = rendition.getVideoBitrate() != null ? rendition.getVideoBitrate() : settings.getVideoBitrate();
+            if (videoBitrate != null && !videoBitrate.isEmpty()) {
+                command.add("-b:v");
+                command.add(videoBitrate);
+            }
+            if (settings.getFrameRate() != null && settings.getFrameRate() > 0) {
+                command.add("-r");
+                command.add(settings.getFrameRate().toString());
+            }
+            if (settings.getAudioCodec() != null && !settings.getAudioCodec().isEmpty()) {
+                command.add("-c:a");
+                command.add(settings.getAudioCodec());
+            }
+            String audioBitrate = rendition.getAudioBitrate() != null ? rendition.getAudioBitrate() : settings.getAudioBitrate();
+            if (audioBitrate != null && !audioBitrate.isEmpty()) {
+                command.add("-b:a");
+                command.add(audioBitrate);
+            }
+            if (settings.getOutputFormat() != null && !settings.getOutputFormat().isEmpty()) {
+                command.add("-f");
+                command.add(resolveMuxer(settings.getOutputFormat()));
+            }
+            command.add("-preset");
+            command.add(cpuPreset(settings));
+            command.add("-movflags");
+            command.add("+faststart");
+            addThreadOption(command);
+            command.add(outputFiles.get(i).getAbsolutePath());
+        }
+        return command;
+    }
+
+    public boolean isStreamableOutput(String outputFormat) {
+        return outputFormat != null && STREAMABLE_MUXERS.contains(resolveMuxer(outputFormat));
+    }
+
+    /**
+     * Whether ffmpeg writes this format strictly front to back, so finished regions of the file can be
+     * uploaded before it exits. MP4/MOV qualify only when written fragmented.
+     */
+    public boolean isAppendOnlyOutput(String outputFormat, boolean fragmentedOutput) {
+        if (outputFormat == null) {
+            return false;
+        }
+        String muxer = resolveMuxer(outputFormat);
+        return "mpegts".equals(muxer) || (fragmentedOutput && isIsoBmffMuxer(muxer));
+    }
+
+    /**
+     * Whether the muxer writes MP4/MOV, the only containers that take {@code -movflags}.
+     */
+    private static boolean isIsoBmffMuxer(String muxer) {
+        return "mp4".equals(muxer) || "mov".equals(muxer);
+    }
+
+    private static String extensionOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1) : "";
+    }
+
+    public boolean isStreamingCandidate(TranscodingJobDto.OutputSettingsDto settings) {
+        return !(gpuEnabled && isGpuModeRequested(settings)) && isStreamableOutput(settings.getOutputFormat());
+    }
+
+    private String resolveMuxer(String outputFormat) {
+        String format = outputFormat.toLowerCase();
+        return FORMAT_TO_MUXER.getOrDefault(format, format);
+    }
+
+    /**
+     * Reads the container duration. {@code input} may be a local path or a (presigned) URL,
+     * in which case ffprobe only fetches the ranges it needs.
+     */
+    public Double probeDurationSeconds(String input) {
+        try {
+            List<String> command = List.of(
+                    ffprobePath,
+                    "-v", "error",
+                    "-show_entries", "format=duration",
+                    "-of", "default=noprint_wrappers=1:nokey=1",
+                    input
+            );
+
+            Process process = start(new ProcessBuilder(command));
+            String output;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                output = reader.readLine();
+            }
+
+            boolean finished = process.waitFor(30, TimeUnit.SECONDS);
+            if (!finished) {
+                process.destroyForcibly();
+                return null;
+            }
+            if (process.exitValue() != 0 || output == null || output.isBlank() || "N/A".equals(output.trim())) {
+                return null;
+            }
+            return Double.parseDouble(output.trim());
+
+        } catch (Exception e) {
+            log.warn("Could not probe duration: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Splits the video of {@code inputFile} into Matroska chunks of roughly {@code segmentSeconds} each.
+     * The segment muxer only cuts on keyframes, so every chunk decodes independently. Audio is left out:
+     * encoding it per chunk would add encoder priming at every boundary, it is encoded once with
+     * {@link #encodeAudio} and muxed back in by {@link #concat}.
+     */
+    public List<File> splitAtKeyframes(File inputFile, File segmentDirectory, int segmentSeconds) {
+        segmentDirectory.mkdirs();
+        List<String> command = List.of(
+                ffmpegPath, "-y",
+                "-i", inputFile.getAbsolutePath(),
+                "-map", "0:v:0",
+                "-c", "copy",
+                "-f", "segment",
+                "-segment_time", String.valueOf(segmentSeconds),
+                "-segment_format", "matroska",
+                "-reset_timestamps", "1",
+                new File(segmentDirectory, "segment_%05d.mkv").getAbsolutePath()
+        );
+
+        if (!runFFmpeg(command, "split " + inputFile.getName())) {
+            return List.of();
+        }
+
+        File[] segments = segmentDirectory.listFiles((dir, name) -> name.startsWith("segment_") && name.endsWith(".mkv"));
+        if (segments == null) {
+            return List.of();
+        }
+        List<File> sorted = new ArrayList<>(List.of(segments));
+        sorted.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return sorted;
+    }
+
+    public boolean hasAudio(File inputFile) {
+        try {
+            List<String> command = List.of(
+                    ffprobePath,
+                    "-v", "error",
+                    "-select_streams", "a",
+                    "-show_entries", "stream=index",
+                    "-of", "csv=p=0",
+                    inputFile.getAbsolutePath()
+            );
+
+            Process process = start(new ProcessBuilder(command));
+            String output;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                output = reader.readLine();
+            }
+
+            boolean finished = process.waitFor(30, TimeUnit.SECONDS);
+            if (!finished) {
+                process.destroyForcibly();
+                return false;
+            }
+            return process.exitValue() == 0 && output != null && !output.isBlank();
+        } catch (Exception e) {
+            log.warn("Could not probe audio streams of {}: {}", inputFile.getName(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Encodes every audio stream of {@code inputFile} in one pass into a Matroska file for {@link #concat}.
+     */
+    public boolean encodeAudio(File inputFile, File outputFile, TranscodingJobDto.OutputSettingsDto settings) {
+        List<String> command = new ArrayList<>(List.of(
+                ffmpegPath, "-y",
+                "-i", inputFile.getAbsolutePath(),
+                "-map", "0:a",
+                "-vn"
+        ));
+        if (settings.getAudioCodec() != null && !settings.getAudioCodec().isEmpty()) {
+            command.add("-c:a");
+            command.add(settings.getAudioCodec());
+        }
+        if (settings.getAudioBitrate() != null && !settings.getAudioBitrate().isEmpty()) {
+            command.add("-b:a");
+            command.add(settings.getAudioBitrate());
+        }
+        command.add("-f");
+        command.add("matroska");
+        command.add(outputFile.getAbsolutePath());
+
+        return runFFmpeg(command, "audio " + inputFile.getName())
+                && outputFile.exists() && outputFile.length() > 0;
+    }
+
+    /**
+     * Stitches already transcoded chunks with the concat demuxer, without re-encoding.
+     *
+     * @param audioFile audio from {@link #encodeAudio} to mux with the chunks, or {@code null} for none
+     */
+    public boolean concat(List<File> parts, File audioFile, File outputFile, String outputFormat) {
+        File listFile = new File(outputFile.getParentFile(), outputFile.getName() + ".concat.txt");
+        try {
+            StringBuilder list = new StringBuilder();
+            for (File part : parts) {
+                list.append("file '").append(part.getAbsolutePath().replace("'", "'\\''")).append("'\n");
+            }
+            Files.writeString(listFile.toPath(), list.toString());
+
+            List<String> command = new ArrayList<>(List.of(
+                    ffmpegPath, "-y",
+                    "-f", "concat",
+                    "-safe", "0",
+                    "-i", listFile.getAbsolutePath()
+            ));
+            if (audioFile != null) {
+                command.addAll(List.of("-i", audioFile.getAbsolutePath(), "-map", "0:v", "-map", "1:a"));
+            } else {
+                command.addAll(List.of("-map", "0"));
+            }
+            command.addAll(List.of("-c", "copy"));
+            boolean formatGiven = outputFormat != null && !outputFormat.isEmpty();
+            if (formatGiven) {
+                command.add("-f");
+                command.add(resolveMuxer(outputFormat));
+            }
+            // without a format ffmpeg picks the muxer by extension
+            String muxer = resolveMuxer(formatGiven ? outputFormat : extensionOf(outputFile));
+            if (isIsoBmffMuxer(muxer)) {
+                command.add("-movflags");
+                command.add("+faststart");
+            }
+            command.add(outputFile.getAbsolutePath());
+
+            return runFFmpeg(command, "concat " + parts.size() + " parts")
+                    && outputFile.exists() && outputFile.length() > 0;
+        } catch (IOException e) {
+            log.error("Could not write concat list {}: {}", listFile.getAbsolutePath(), e.getMessage());
+            return false;
+        } finally {
+            listFile.delete();
+        }
+    }
+
+    private boolean runFFmpeg(List<String> command, String description) {
+        try {
+            log.info("Executing FFmpeg {}: {}", description, String.join(" ", command));
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.redirectErrorStream(true);
+            Process process = start(processBuilder);
+
+            StringBuilder outputLog = new StringBuilder();
+            try (ProgressTracker.Listener progress = progressTracker.listener();
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!progress.accept(line) && outputLog.length() < 8000) {
+                        outputLog.append(line).append("\n");
+                    }
+                }
+            }
+
+            boolean finished = process.waitFor(TRANSCODING_TIMEOUT_HOURS, TimeUnit.HOURS);
+            if (!finished) {
+                process.destroyForcibly();
+                log.error("FFmpeg {} timed out", description);
+                return false;
+            }
+            if (process.exitValue() != 0) {
+                log.error("FFmpeg {} failed with exit code {}\nOutput:\n{}", description, process.exitValue(),
+                        outputLog.substring(0, Math.min(outputLog.length(), 2000)));
+                return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            log.error("Error running FFmpeg {}: {}", description, e.getMessage(), e);
+            return false;
+        }
+    }
+
     public String getVideoInfo(File inputFile) {
         try {
             List<String> command = List.of(
@@ -201,12 +714,13 @@ public class FFmpegService {
         }
     }
 
-    private List<String> buildFFmpegCommand(File inputFile, File outputFile,
+    private List<String> buildFFmpegCommand(String input, String output,
                                              TranscodingJobDto.OutputSettingsDto settings,
-                                             boolean useGpu) {
+                                             boolean useGpu, boolean fragmentedOutput) {
         List<String> command = new ArrayList<>();
         command.add(ffmpegPath);
         command.add("-y");
+        addProgressOutput(command);
 
         if (useGpu) {
             if (isNvidia()) {
@@ -227,7 +741,7 @@ public class FFmpegService {
         }
 
         command.add("-i");
-        command.add(inputFile.getAbsolutePath());
+        command.add(input);
 
         String requestedVideoCodec = settings.getVideoCodec();
         if (requestedVideoCodec != null && !requestedVideoCodec.isEmpty()) {
@@ -280,9 +794,12 @@ public class FFmpegService {
             command.add(settings.getAudioBitrate());
         }
 
-        if (settings.getOutputFormat() != null && !settings.getOutputFormat().isEmpty()) {
+        boolean packaged = isPackagedOutput(settings.getOutputFormat());
+        if (packaged) {
+            addPackagingOptions(command, output, settings.getOutputFormat());
+        } else if (settings.getOutputFormat() != null && !settings.getOutputFormat().isEmpty()) {
             command.add("-f");
-            command.add(settings.getOutputFormat());
+            command.add(resolveMuxer(settings.getOutputFormat()));
         }
 
         if (useGpu && isNvidia()) {
@@ -299,17 +816,54 @@ public class FFmpegService {
             command.add("25");
         } else {
             command.add("-preset");
-            command.add("medium");
+            command.add(cpuPreset(settings));
         }
 
-        command.add("-movflags");
-        command.add("+faststart");
+        if (!packaged) {
+            command.add("-movflags");
+            command.add(fragmentedOutput ? FRAGMENTED_MP4_FLAGS : "+faststart");
+        }
 
-        command.add(outputFile.getAbsolutePath());
+        addThreadOption(command);
+        command.add(output);
 
         return command;
     }
 
+    /**
+     * HLS/CMAF: segments are written next to the playlist with temp_file, so a segment that
+     * shows up under its final name (and in the playlist) is complete and safe to upload.
+     */
+    private void addPackagingOptions(List<String> command, String playlistPath, String outputFormat) {
+        boolean cmaf = "cmaf".equalsIgnoreCase(outputFormat);
+        File playlistDirectory = new File(playlistPath).getParentFile();
+
+        command.add("-force_key_frames");
+        command.add("expr:gte(t,n_forced*" + packagingSegmentSeconds + ")");
+        command.add("-f");
+        command.add("hls");
+        command.add("-hls_time");
+        command.add(String.valueOf(packagingSegmentSeconds));
+        command.add("-hls_list_size");
+        command.add("0");
+        command.add("-hls_playlist_type");
+        command.add("event");
+        command.add("-hls_flags");
+        command.add("independent_segments+temp_file");
+        command.add("-hls_segment_type");
+        command.add(cmaf ? "fmp4" : "mpegts");
+        if (cmaf) {
+            command.add("-hls_fmp4_init_filename");
+            command.add("init.mp4");
+        }
+        command.add("-hls_segment_filename");
+        command.add(new File(playlistDirectory, "segment_%05d" + (cmaf ? ".m4s" : ".ts")).getAbsolutePath());
+    }
+
+    public boolean isPackagedOutput(String outputFormat) {
+        return outputFormat != null && PACKAGED_FORMATS.contains(outputFormat.toLowerCase());
+    }
+
     private boolean isGpuModeRequested(TranscodingJobDto.OutputSettingsDto settings) {
         String mode = settings.getProcessingMode();
         if (mode != null && mode.equalsIgnoreCase("GPU")) {
@@ -434,6 +988,38 @@ public class FFmpegService {
         return gpuType;
     }
 
+    /**
+     * @return the codecs this ffmpeg build can encode and the names of their encoders, e.g. h264 and libx264
+     */
+    public Set<String> getEncoders() {
+        Set<String> encoders = new TreeSet<>();
+        try {
+            Process process = new ProcessBuilder(ffmpegPath, "-hide_banner", "-codecs")
+                    .redirectErrorStream(true)
+                    .start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Matcher codec = CODEC_LINE.matcher(line);
+                    if (!codec.matches() || !"E".equals(codec.group(2))) {
+                        continue;
+                    }
+                    encoders.add(codec.group(3));
+                    Matcher named = CODEC_ENCODERS.matcher(line);
+                    if (named.find()) {
+                        encoders.addAll(List.of(named.group(1).trim().split("\\s+")));
+                    }
+                }
+            }
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (Exception e) {
+            log.warn("Could not list the encoders of {}: {}", ffmpegPath, e.getMessage());
+        }
+        return encoders;
+    }
+
     public String getFFmpegVersion() {
         return getToolVersion(ffmpegPath);
     }
@@ -0,0 +1,364 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.dto.WorkerInfo;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Dispatches submitted jobs to the workers with deficit round robin over per-user queues, so that a
+ * user with hundreds of jobs gets their share of the fleet rather than all of it. Submitted jobs stay
+ * in the database until dispatched; only {@code max-in-flight} jobs are on the Kafka topic at a time,
+ * which keeps its FIFO order from deciding who runs next. Each round a user's deficit grows by the
+ * quantum times their weight, and their jobs are sent, in the order of the {@link SchedulingPolicy},
+ * while their CPU units fit into it.
+ * <p>
+ * LOW priority jobs outside an off-peak {@link BatchWindow} stay undispatched, whether or not fair
+ * share is enabled, until the window opens or the fleet has spare capacity.
+ * <p>
+ * One instance dispatches, the holder of a leader key in Redis. Without Redis every instance
+ * dispatches; marking a job dispatched is a conditional update, so each job is still sent once.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FairShareDispatcher {
+
+    private static final String LEADER_KEY = "transcode:dispatcher:leader";
+
+    /** Tag of the row that sums the users outside the top ones. */
+    static final String OTHER_USERS = "other";
+
+    private static final RedisScript<Long> RENEW_LEADER = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end return 0",
+            Long.class);
+
+    private final TranscodingJobRepository jobRepository;
+    private final JobEventPublisher jobEventPublisher;
+    private final JobCostEstimator costEstimator;
+    private final SchedulingPolicy schedulingPolicy;
+    private final WorkerRegistry workerRegistry;
+    private final BatchWindow batchWindow;
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${WORKER_ID:default-worker}")
+    private String workerId;
+
+    @Value("${transcoding.fair-share.enabled:true}")
+    private boolean enabled;
+
+    @Value("${transcoding.fair-share.max-in-flight:16}")
+    private int maxInFlight;
+
+    /** Dispatched jobs still unclaimed after this long, e.g. parked behind an identical job, stop counting. */
+    @Value("${transcoding.fair-share.in-flight-timeout-seconds:600}")
+    private long inFlightTimeoutSeconds;
+
+    @Value("${transcoding.fair-share.quantum-units:1.0}")
+    private double quantumUnits;
+
+    /** {@code userId:weight} pairs, comma separated; other users weigh 1. */
+    @Value("${transcoding.fair-share.weights:}")
+    private String weightsProperty;
+
+    /** Oldest jobs of a user that are ordered by the scheduling policy each round. */
+    @Value("${transcoding.fair-share.scan-limit:500}")
+    private int scanLimit;
+
+    @Value("${transcoding.fair-share.leader-ttl-ms:15000}")
+    private long leaderTtlMs;
+
+    /** Users with the most waiting jobs that get their own per-user gauge row; the rest are summed. */
+    @Value("${transcoding.fair-share.metrics-top-users:10}")
+    private int metricsTopUsers;
+
+    /** Dispatched jobs that no live worker accepted within this long, e.g. lost messages, are sent again. */
+    @Value("${transcoding.cache.waiter-timeout-minutes:30}")
+    private long waiterTimeoutMinutes;
+
+    private final Map<String, Double> weights = new HashMap<>();
+    private final Map<String, Double> deficits = new HashMap<>();
+    private final Deque<String> rotation = new ArrayDeque<>();
+    private volatile Map<String, Long> undispatched = Map.of();
+    private volatile long heldLow;
+    private volatile boolean leader;
+    private MultiGauge userPending;
+    private MultiGauge userShare;
+    private final Map<TranscodingJob.QosClass, Counter> dispatched = new EnumMap<>(TranscodingJob.QosClass.class);
+    private final Map<TranscodingJob.QosClass, Counter> dispatchedUnits = new EnumMap<>(TranscodingJob.QosClass.class);
+    private final Map<TranscodingJob.QosClass, Timer> waits = new EnumMap<>(TranscodingJob.QosClass.class);
+
+    @PostConstruct
+    public void init() {
+        for (String entry : weightsProperty.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length == 2 && Double.parseDouble(parts[1]) > 0) {
+                weights.put(parts[0].trim(), Double.parseDouble(parts[1]));
+            }
+        }
+        Gauge.builder("transcoding.fairshare.pending", this,
+                        dispatcher -> dispatcher.undispatched.values().stream().mapToLong(Long::longValue).sum())
+                .description("Submitted jobs waiting to be dispatched").register(meterRegistry);
+        Gauge.builder("transcoding.fairshare.leader", this, dispatcher -> dispatcher.leader ? 1 : 0)
+                .description("Whether this instance dispatches jobs").register(meterRegistry);
+        Gauge.builder("transcoding.batch.held", this, dispatcher -> dispatcher.heldLow)
+                .description("LOW priority jobs held for an off-peak window").register(meterRegistry);
+        userPending = MultiGauge.builder("transcoding.fairshare.user.pending")
+                .description("Jobs waiting to be dispatched, for the users with the most of them")
+                .register(meterRegistry);
+        userShare = MultiGauge.builder("transcoding.fairshare.user.share")
+                .description("Share of dispatches a user with waiting jobs is entitled to").register(meterRegistry);
+        for (TranscodingJob.QosClass qosClass : TranscodingJob.QosClass.values()) {
+            String name = qosClass.name().toLowerCase(Locale.ROOT);
+            dispatched.put(qosClass, Counter.builder("transcoding.fairshare.dispatched").tag("class", name)
+                    .description("Jobs dispatched, per QoS class").register(meterRegistry));
+            dispatchedUnits.put(qosClass, Counter.builder("transcoding.fairshare.units").tag("class", name)
+                    .description("CPU units dispatched, per QoS class; their rates are the classes' fleet shares")
+                    .register(meterRegistry));
+            waits.put(qosClass, Timer.builder("transcoding.fairshare.wait").tag("class", name)
+                    .description("Time from submission to dispatch, per QoS class").register(meterRegistry));
+        }
+        log.info("FairShareDispatcher initialized: enabled={}, maxInFlight={}, quantum={}, weights={}",
+                enabled, maxInFlight, quantumUnits, weights);
+    }
+
+    /**
+     * Hands a newly submitted job over for dispatch.
+     */
+    public void submit(TranscodingJob job) {
+        if (!enabled && !batchWindow.holds(job)) {
+            send(job, LocalDateTime.now());
+            return;
+        }
+        if (!enabled) {
+            log.info("Job {} is held for an off-peak window", job.getId());
+            return;
+        }
+        log.info("Job {} waits for dispatch behind the jobs of other users", job.getId());
+    }
+
+    @Scheduled(fixedDelayString = "${transcoding.fair-share.interval-ms:1000}")
+    public synchronized void dispatch() {
+        // without fair share only held LOW jobs wait here
+        if ((!enabled && !batchWindow.isEnabled()) || !holdLeadership()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        long inFlight = jobRepository.countDispatchedSince(now.minusSeconds(inFlightTimeoutSeconds));
+        long lowAllowance = batchWindow.allowance(inFlight);
+        boolean includeLow = lowAllowance > 0;
+        heldLow = lowAllowance == Long.MAX_VALUE ? 0 : jobRepository.countUndispatchedLow();
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Object[] row : jobRepository.countUndispatchedByUser(includeLow)) {
+            counts.put((String) row[0], (Long) row[1]);
+        }
+        undispatched = counts;
+        // a row per user would grow with the user base, only the users with the most waiting jobs get one
+        Set<String> shown = counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(metricsTopUsers)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        userPending.register(userRows(counts.keySet(), shown, counts::get), true);
+        double totalWeight = counts.keySet().stream().mapToDouble(this::weightOf).sum();
+        userShare.register(userRows(counts.keySet(), shown, userId -> weightOf(userId) / totalWeight), true);
+
+        // users whose queue ran dry start over
+        deficits.keySet().retainAll(counts.keySet());
+        rotation.retainAll(counts.keySet());
+        counts.keySet().stream().filter(userId -> !rotation.contains(userId)).forEach(rotation::addLast);
+
+        long slots = maxInFlight - inFlight;
+        if (slots <= 0 || rotation.isEmpty()) {
+            return;
+        }
+        Map<String, Deque<TranscodingJob>> queues = new HashMap<>();
+        while (slots > 0 && !rotation.isEmpty()) {
+            String userId = rotation.pollFirst();
+            Deque<TranscodingJob> queue = queues.computeIfAbsent(userId, id -> loadQueue(id, includeLow));
+            double deficit = deficits.getOrDefault(userId, 0.0) + quantumUnits * weightOf(userId);
+            while (slots > 0 && !queue.isEmpty() && costEstimator.weight(queue.peekFirst()) <= deficit) {
+                TranscodingJob job = queue.pollFirst();
+                boolean low = job.getPriority() == TranscodingJob.JobPriority.LOW;
+                if (low && lowAllowance <= 0) {
+                    // the spare capacity is used up, it waits for the next round
+                    continue;
+                }
+                if (send(job, now)) {
+                    deficit -= costEstimator.weight(job);
+                    slots--;
+                    if (low) {
+                        lowAllowance--;
+                    }
+                }
+            }
+            if (queue.isEmpty()) {
+                deficits.remove(userId);
+            } else {
+                deficits.put(userId, deficit);
+                rotation.addLast(userId);
+            }
+        }
+    }
+
+    /**
+     * Sends jobs again that were routed to a worker which stopped heartbeating before it claimed them.
+     */
+    @Scheduled(fixedDelayString = "${transcoding.workers.heartbeat-ms:5000}")
+    public synchronized void redispatchOrphans() {
+        List<String> live = workerRegistry.workers().stream().map(WorkerInfo::getWorkerId).toList();
+        // an empty registry means Redis is unavailable, not that every worker is gone
+        if (live.isEmpty() || !holdLeadership()) {
+            return;
+        }
+        for (TranscodingJob job : jobRepository.findAssignedToOtherWorkers(live)) {
+            if (jobRepository.unassignWorker(job.getId(), job.getWorkerId()) > 0) {
+                log.warn("Worker {} is gone before claiming job {}, dispatching it again", job.getWorkerId(),
+                        job.getId());
+                job.setWorkerId(null);
+                jobEventPublisher.dispatch(job);
+            }
+        }
+    }
+
+    /**
+     * Sends jobs again that were dispatched long ago and never reached a worker. Jobs a live worker
+     * accepted are left to it, however long they wait in its admission queue or behind a leader; those
+     * of a worker that is gone are sent again by {@link #redispatchOrphans}.
+     */
+    @Scheduled(fixedDelayString = "${transcoding.cache.waiter-sweep-ms:60000}")
+    public synchronized void redispatchStale() {
+        if (!holdLeadership()) {
+            return;
+        }
+        List<String> live = workerRegistry.workers().stream().map(WorkerInfo::getWorkerId).toList();
+        LocalDateTime now = LocalDateTime.now();
+        for (TranscodingJob job : jobRepository.findDispatchedBefore(now.minusMinutes(waiterTimeoutMinutes))) {
+            // an empty registry means Redis is unavailable, not that every worker is gone
+            if (job.getAcceptedAt() != null && (live.isEmpty() || live.contains(job.getWorkerId()))) {
+                continue;
+            }
+            if (jobRepository.redispatch(job.getId(), job.getDispatchedAt(), now) > 0) {
+                log.warn("Job {} was dispatched at {} and never accepted, dispatching it again", job.getId(),
+                        job.getDispatchedAt());
+                job.setDispatchedAt(now);
+                jobEventPublisher.dispatch(job);
+            }
+        }
+    }
+
+    /**
+     * @return the user's undispatched jobs in the order of the scheduling policy
+     */
+    private Deque<TranscodingJob> loadQueue(String userId, boolean includeLow) {
+        return jobRepository.findUndispatched(userId, includeLow, PageRequest.of(0, scanLimit)).stream()
+                .sorted(Comparator.comparingLong(job -> schedulingPolicy.key(job, submittedAtMillis(job), null)))
+                .collect(Collectors.toCollection(ArrayDeque::new));
+    }
+
+    private static long submittedAtMillis(TranscodingJob job) {
+        return job.getCreatedAt() != null
+                ? job.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+    }
+
+    private boolean send(TranscodingJob job, LocalDateTime now) {
+        if (jobRepository.markDispatched(job.getId(), now) == 0) {
+            // cancelled, or sent by an instance that also thought it was leader
+            return false;
+        }
+        job.setDispatchedAt(now);
+        jobEventPublisher.dispatch(job);
+
+        TranscodingJob.QosClass qosClass = job.getQosClass() != null
+                ? job.getQosClass() : TranscodingJob.QosClass.STANDARD;
+        dispatched.get(qosClass).increment();
+        dispatchedUnits.get(qosClass).increment(costEstimator.weight(job));
+        if (job.getCreatedAt() != null) {
+            waits.get(qosClass).record(Duration.between(job.getCreatedAt(), now));
+        }
+        return true;
+    }
+
+    /**
+     * @return a row for each of the {@code shown} users and one {@link #OTHER_USERS} row summing the rest
+     */
+    static List<MultiGauge.Row<?>> userRows(Collection<String> users, Set<String> shown,
+                                            ToDoubleFunction<String> value) {
+        List<MultiGauge.Row<?>> rows = new ArrayList<>();
+        double other = 0;
+        for (String userId : users) {
+            if (shown.contains(userId)) {
+                rows.add(MultiGauge.Row.of(Tags.of("user", userId), value.applyAsDouble(userId)));
+            } else {
+                other += value.applyAsDouble(userId);
+            }
+        }
+        if (rows.size() < users.size()) {
+            rows.add(MultiGauge.Row.of(Tags.of("user", OTHER_USERS), other));
+        }
+        return rows;
+    }
+
+    private double weightOf(String userId) {
+        return weights.getOrDefault(userId, 1.0);
+    }
+
+    private boolean holdLeadership() {
+        boolean held;
+        try {
+            Boolean acquired = redisTemplate.opsForValue()
+                    .setIfAbsent(LEADER_KEY, workerId, Duration.ofMillis(leaderTtlMs));
+            held = Boolean.TRUE.equals(acquired) || Long.valueOf(1).equals(redisTemplate.execute(RENEW_LEADER,
+                    List.of(LEADER_KEY), workerId, String.valueOf(leaderTtlMs)));
+        } catch (Exception e) {
+            log.debug("Redis unavailable for dispatcher election, dispatching anyway: {}", e.getMessage());
+            held = true;
+        }
+        if (held != leader) {
+            log.info(held ? "Worker {} now dispatches jobs" : "Worker {} no longer dispatches jobs", workerId);
+            if (!held) {
+                deficits.clear();
+                rotation.clear();
+                undispatched = Map.of();
+                heldLow = 0;
+                userPending.register(new ArrayList<>(), true);
+                userShare.register(new ArrayList<>(), true);
+            }
+        }
+        leader = held;
+        return held;
+    }
+}
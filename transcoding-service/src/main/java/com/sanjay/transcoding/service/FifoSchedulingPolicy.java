@@ -0,0 +1,18 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Jobs run in the order they were accepted.
+ */
+@Component
+@ConditionalOnProperty(name = "transcoding.scheduling.policy", havingValue = "fifo")
+public class FifoSchedulingPolicy implements SchedulingPolicy {
+
+    @Override
+    public long key(TranscodingJob job, long acceptedAtMillis, Double inputDurationSeconds) {
+        return acceptedAtMillis;
+    }
+}
@@ -0,0 +1,155 @@
+package com.sanjay.transcoding.service;
+
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Uploads HLS/CMAF output while ffmpeg is still encoding. Segments are uploaded as soon as the
+ * playlist references them, and the playlist itself is uploaded after its segments, so the
+ * published playlist never points at an object that does not exist yet.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class HlsSegmentUploader {
+
+    private static final Pattern MAP_URI = Pattern.compile("#EXT-X-MAP:.*URI=\"([^\"]+)\"");
+
+    private final MinioClient minioClient;
+    private final JobCancellationRegistry cancellations;
+
+    @Value("${storage.minio.output-bucket-name:transcoded-files}")
+    private String outputBucketName;
+
+    @Value("${transcoding.packaging.upload-poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    public Session begin(File playlistFile, String objectPrefix) {
+        Session session = new Session(playlistFile, objectPrefix);
+        session.worker = Thread.ofVirtual().name("hls-upload-" + playlistFile.getParentFile().getName()).start(session::run);
+        return session;
+    }
+
+    public class Session {
+
+        private final File playlistFile;
+        private final String objectPrefix;
+        private final Map<String, Long> uploaded = new HashMap<>();
+        private volatile boolean encoding = true;
+        private volatile Exception failure;
+        private Thread worker;
+
+        private Session(File playlistFile, String objectPrefix) {
+            this.playlistFile = playlistFile;
+            this.objectPrefix = objectPrefix;
+            cancellations.onCancel(() -> encoding = false);
+        }
+
+        private void run() {
+            try {
+                while (encoding) {
+                    sync();
+                    Thread.sleep(pollIntervalMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failure = e;
+                log.error("Incremental upload of {} failed: {}", playlistFile.getAbsolutePath(), e.getMessage());
+            }
+        }
+
+        /**
+         * Stops polling and uploads whatever is left, including the final playlist with ENDLIST.
+         */
+        public void finish() throws Exception {
+            encoding = false;
+            worker.join();
+            if (failure != null) {
+                throw failure;
+            }
+            sync();
+            log.info("Uploaded {} packaged objects under {}", uploaded.size(), objectPrefix);
+        }
+
+        public void abort() throws InterruptedException {
+            encoding = false;
+            worker.interrupt();
+            worker.join();
+        }
+
+        private synchronized void sync() throws Exception {
+            if (!playlistFile.exists()) {
+                return;
+            }
+            List<String> lines = Files.readAllLines(playlistFile.toPath());
+            for (String name : referencedFiles(lines)) {
+                File file = new File(playlistFile.getParentFile(), name);
+                uploadIfChanged(file, contentTypeOf(name));
+            }
+            uploadIfChanged(playlistFile, "application/vnd.apple.mpegurl");
+        }
+
+        private List<String> referencedFiles(List<String> playlistLines) {
+            List<String> names = new ArrayList<>();
+            for (String line : playlistLines) {
+                String trimmed = line.trim();
+                Matcher map = MAP_URI.matcher(trimmed);
+                if (map.find()) {
+                    names.add(map.group(1));
+                } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                    names.add(trimmed);
+                }
+            }
+            return names;
+        }
+
+        private void uploadIfChanged(File file, String contentType) throws Exception {
+            if (!file.exists()) {
+                return;
+            }
+            Long lastModified = uploaded.get(file.getName());
+            if (lastModified == null || lastModified != file.lastModified()) {
+                upload(file, contentType);
+            }
+        }
+
+        private void upload(File file, String contentType) throws Exception {
+            long lastModified = file.lastModified();
+            try (FileInputStream fis = new FileInputStream(file)) {
+                minioClient.putObject(PutObjectArgs.builder()
+                        .bucket(outputBucketName)
+                        .object(objectPrefix + file.getName())
+                        .stream(fis, file.length(), -1)
+                        .contentType(contentType)
+                        .build());
+            }
+            uploaded.put(file.getName(), lastModified);
+            log.debug("Uploaded packaged object {}{}", objectPrefix, file.getName());
+        }
+
+        private String contentTypeOf(String name) {
+            if (name.endsWith(".ts")) {
+                return "video/mp2t";
+            }
+            if (name.endsWith(".m4s")) {
+                return "video/iso.segment";
+            }
+            return "video/mp4";
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.sanjay.transcoding.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.MinioClient;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Worker-local disk cache of job inputs, keyed by bucket/objectKey/ETag, so renditions of the same
+ * upload queued on one worker download it once. Entries are reference counted and only unreferenced
+ * entries are evicted, least recently used first, to stay within the byte budget.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class InputFileCache {
+
+    private final MinioClient minioClient;
+    private final ParallelObjectDownloader downloader;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transcoding.input-cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${transcoding.input-cache.max-bytes:10737418240}")
+    private long maxBytes;
+
+    @Value("${transcoding.processing.temp-directory:/tmp/transcode}")
+    private String tempDirectory;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    private File cacheDirectory;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+
+    @PostConstruct
+    public void init() {
+        cacheDirectory = new File(tempDirectory, "input-cache");
+        deleteContents(cacheDirectory);
+        cacheDirectory.mkdirs();
+
+        hits = Counter.builder("transcoding.input.cache.requests").tag("result", "hit")
+                .description("Input cache lookups").register(meterRegistry);
+        misses = Counter.builder("transcoding.input.cache.requests").tag("result", "miss")
+                .description("Input cache lookups").register(meterRegistry);
+        evictions = Counter.builder("transcoding.input.cache.evictions")
+                .description("Input files evicted from the worker cache").register(meterRegistry);
+        Gauge.builder("transcoding.input.cache.size", this, cache -> cache.currentUsedBytes())
+                .baseUnit("bytes").description("Bytes held by the input cache").register(meterRegistry);
+        Gauge.builder("transcoding.input.cache.entries", this, cache -> cache.currentEntryCount())
+                .description("Files held by the input cache").register(meterRegistry);
+
+        log.info("InputFileCache initialized: enabled={}, maxBytes={}, dir={}", cacheEnabled, maxBytes, cacheDirectory);
+    }
+
+    /**
+     * Returns a lease on a local copy of the object, downloading it on a miss. The file stays on disk
+     * at least until the lease is closed.
+     */
+    public Lease acquire(String bucket, String objectKey) throws Exception {
+        StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder()
+                .bucket(bucket)
+                .object(objectKey)
+                .build());
+
+        if (!cacheEnabled) {
+            File file = new File(tempDirectory, "input_" + System.nanoTime() + extensionOf(objectKey));
+            download(bucket, objectKey, stat, file);
+            return new Lease(null, file);
+        }
+
+        String key = bucket + "/" + objectKey + "/" + stat.etag();
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key, new File(cacheDirectory, digest(key) + extensionOf(objectKey)), stat.size());
+                entries.put(key, entry);
+                usedBytes += entry.size;
+                owner = true;
+                evictUnreferenced();
+            }
+            entry.references++;
+        }
+
+        if (owner) {
+            misses.increment();
+            try {
+                download(bucket, objectKey, stat, entry.file);
+                entry.ready.complete(null);
+            } catch (Exception e) {
+                entry.ready.completeExceptionally(e);
+                synchronized (this) {
+                    entry.references--;
+                    remove(entry);
+                }
+                throw e;
+            }
+        } else {
+            hits.increment();
+            try {
+                entry.ready.get();
+            } catch (ExecutionException e) {
+                synchronized (this) {
+                    entry.references--;
+                }
+                throw new IllegalStateException("Download of " + objectKey + " failed", e.getCause());
+            }
+        }
+        return new Lease(entry, entry.file);
+    }
+
+    public boolean isEnabled() {
+        return cacheEnabled;
+    }
+
+    public synchronized boolean isCached(String bucket, String objectKey) {
+        if (!cacheEnabled) {
+            return false;
+        }
+        String prefix = bucket + "/" + objectKey + "/";
+        return entries.values().stream().anyMatch(entry -> entry.key.startsWith(prefix) && entry.ready.isDone()
+                && !entry.ready.isCompletedExceptionally());
+    }
+
+    private void download(String bucket, String objectKey, StatObjectResponse stat, File target) throws Exception {
+        log.info("Downloading input file from MinIO: bucket={}, key={}", bucket, objectKey);
+        try {
+            downloader.download(bucket, objectKey, stat, target);
+        } catch (Exception e) {
+            Files.deleteIfExists(target.toPath());
+            throw e;
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.references--;
+        evictUnreferenced();
+    }
+
+    private void evictUnreferenced() {
+        if (usedBytes <= maxBytes) {
+            return;
+        }
+        List<Entry> victims = new ArrayList<>();
+        long projected = usedBytes;
+        Iterator<Entry> eldestFirst = entries.values().iterator();
+        while (projected > maxBytes && eldestFirst.hasNext()) {
+            Entry candidate = eldestFirst.next();
+            if (candidate.references == 0 && candidate.ready.isDone()) {
+                victims.add(candidate);
+                projected -= candidate.size;
+            }
+        }
+        for (Entry victim : victims) {
+            remove(victim);
+            evictions.increment();
+            log.debug("Evicted cached input {} ({} bytes)", victim.key, victim.size);
+        }
+        if (usedBytes > maxBytes) {
+            log.warn("Input cache over budget: {} of {} bytes are in use by running jobs", usedBytes, maxBytes);
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.key) != null) {
+            usedBytes -= entry.size;
+        }
+        try {
+            Files.deleteIfExists(entry.file.toPath());
+        } catch (Exception e) {
+            log.warn("Failed to delete cached input {}: {}", entry.file.getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    private synchronized long currentUsedBytes() {
+        return usedBytes;
+    }
+
+    private synchronized int currentEntryCount() {
+        return entries.size();
+    }
+
+    private String digest(String key) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    private String extensionOf(String objectKey) {
+        if (objectKey != null && objectKey.contains(".")) {
+            return objectKey.substring(objectKey.lastIndexOf("."));
+        }
+        return ".mp4";
+    }
+
+    private void deleteContents(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final File file;
+        private final long size;
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+        private int references;
+
+        private Entry(String key, File file, long size) {
+            this.key = key;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    public class Lease implements AutoCloseable {
+
+        private final Entry entry;
+        private final File file;
+        private boolean closed;
+
+        private Lease(Entry entry, File file) {
+            this.entry = entry;
+            this.file = file;
+        }
+
+        public File file() {
+            return file;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (entry != null) {
+                release(entry);
+            } else {
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (Exception e) {
+                    log.warn("Failed to cleanup temp file: {}", file.getAbsolutePath());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.sanjay.transcoding.service;
+
+import io.minio.MinioClient;
+import io.minio.StatObjectArgs;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Warms the input cache for the next few jobs this worker has accepted but not started yet, so that
+ * ffmpeg can start as soon as a job is admitted. Prefetched inputs stay pinned in the cache until
+ * their job claims them, and the pinned bytes are bounded by a separate budget. A failed prefetch
+ * is tried once more before the job is left to fetch its own input.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class InputPrefetcher {
+
+    private enum State { WAITING, FETCHING, READY, FAILED }
+
+    private static final int MAX_TRIES = 2;
+
+    private final InputFileCache inputFileCache;
+    private final MinioClient minioClient;
+    private final JobPipeline pipeline;
+
+    @Value("${transcoding.prefetch.enabled:true}")
+    private boolean prefetchEnabled;
+
+    @Value("${transcoding.prefetch.lookahead:2}")
+    private int lookahead;
+
+    @Value("${transcoding.prefetch.max-bytes:4294967296}")
+    private long maxBytes;
+
+    @Value("${storage.minio.bucket-name:video-files}")
+    private String inputBucketName;
+
+    private final HashMap<String, Pending> pending = new HashMap<>();
+    private long reservedBytes;
+
+    /**
+     * Records a job that was handed to this worker; {@code admissionKey} is its position in the run queue.
+     */
+    public void accepted(String jobId, String objectKey, long admissionKey) {
+        if (!prefetchEnabled || !inputFileCache.isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            pending.put(jobId, new Pending(jobId, objectKey, admissionKey));
+        }
+        schedule();
+    }
+
+    /**
+     * Removes the job from the lookahead window. The returned lease, if any, keeps the prefetched input
+     * in the cache until the job has acquired its own and must be closed by the caller.
+     */
+    public InputFileCache.Lease claim(String jobId) {
+        Pending claimed;
+        synchronized (this) {
+            claimed = pending.remove(jobId);
+            if (claimed != null) {
+                reservedBytes -= claimed.reservedBytes;
+            }
+        }
+        schedule();
+        return claimed != null ? claimed.lease : null;
+    }
+
+    /**
+     * Drops a job that will not be run here after all, e.g. because it was never admitted, along with
+     * its prefetched input.
+     */
+    public void discard(String jobId) {
+        InputFileCache.Lease lease = claim(jobId);
+        if (lease != null) {
+            lease.close();
+        }
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            pending.values().stream()
+                    .sorted(Comparator.comparingLong(candidate -> candidate.admissionKey))
+                    .limit(lookahead)
+                    .filter(next -> next.state == State.WAITING)
+                    .forEach(next -> {
+                        next.state = State.FETCHING;
+                        Thread.ofVirtual().name("prefetch-" + next.jobId).start(() -> prefetch(next));
+                    });
+        }
+    }
+
+    private void prefetch(Pending next) {
+        try {
+            long size = minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(inputBucketName)
+                    .object(next.objectKey)
+                    .build()).size();
+            synchronized (this) {
+                if (!pending.containsKey(next.jobId)) {
+                    return;
+                }
+                if (reservedBytes + size > maxBytes) {
+                    // retried when a claim frees budget
+                    next.state = State.WAITING;
+                    return;
+                }
+                reservedBytes += size;
+                next.reservedBytes = size;
+            }
+
+            InputFileCache.Lease lease = pipeline.run(JobPipeline.Stage.FETCH,
+                    () -> inputFileCache.acquire(inputBucketName, next.objectKey));
+            synchronized (this) {
+                if (pending.containsKey(next.jobId)) {
+                    next.lease = lease;
+                    next.state = State.READY;
+                    log.info("Prefetched input {} for job {}", next.objectKey, next.jobId);
+                    return;
+                }
+            }
+            // claimed while downloading, the job has its own lease by now or is about to get a cache hit
+            lease.close();
+        } catch (Exception e) {
+            boolean retry;
+            synchronized (this) {
+                if (!pending.containsKey(next.jobId)) {
+                    // claimed meanwhile, which gave its budget back
+                    return;
+                }
+                reservedBytes -= next.reservedBytes;
+                next.reservedBytes = 0;
+                retry = ++next.tries < MAX_TRIES;
+                next.state = retry ? State.WAITING : State.FAILED;
+            }
+            log.warn("Prefetch of {} for job {} failed{}: {}", next.objectKey, next.jobId,
+                    retry ? ", trying again" : "", e.getMessage());
+            if (retry) {
+                schedule();
+            }
+        }
+    }
+
+    private static class Pending {
+        private final String jobId;
+        private final String objectKey;
+        private final long admissionKey;
+        private State state = State.WAITING;
+        private long reservedBytes;
+        private int tries;
+        private InputFileCache.Lease lease;
+
+        private Pending(String jobId, String objectKey, long admissionKey) {
+            this.jobId = jobId;
+            this.objectKey = objectKey;
+            this.admissionKey = admissionKey;
+        }
+    }
+}
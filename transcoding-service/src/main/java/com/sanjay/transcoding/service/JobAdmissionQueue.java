@@ -0,0 +1,122 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The worker's local run queue. Accepted jobs wait here for one of the in-flight slots and are
+ * admitted in the order of the {@link SchedulingPolicy}, whose static admission key means the
+ * ordering never has to be recomputed.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobAdmissionQueue {
+
+    private final SchedulingPolicy schedulingPolicy;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transcoding.processing.max-concurrent-jobs:4}")
+    private int maxConcurrentJobs;
+
+    @Value("${transcoding.pipeline.max-in-flight-jobs:8}")
+    private int maxInFlightJobs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition admitted = lock.newCondition();
+    private final PriorityQueue<Waiter> waiting = new PriorityQueue<>(
+            Comparator.comparingLong(Waiter::key).thenComparingLong(Waiter::sequence));
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<TranscodingJob.JobPriority, Timer> waitTimers = new EnumMap<>(TranscodingJob.JobPriority.class);
+    private final Map<TranscodingJob.JobPriority, AtomicLong> queued = new EnumMap<>(TranscodingJob.JobPriority.class);
+    private int available;
+
+    @PostConstruct
+    public void init() {
+        available = Math.max(maxInFlightJobs, maxConcurrentJobs);
+        for (TranscodingJob.JobPriority priority : TranscodingJob.JobPriority.values()) {
+            String tag = priority.name().toLowerCase(Locale.ROOT);
+            waitTimers.put(priority, Timer.builder("transcoding.queue.wait")
+                    .tag("priority", tag).description("Time accepted jobs waited for admission").register(meterRegistry));
+            AtomicLong depth = new AtomicLong();
+            queued.put(priority, depth);
+            Gauge.builder("transcoding.queue.depth", depth, AtomicLong::get)
+                    .tag("priority", tag).description("Accepted jobs waiting for admission").register(meterRegistry);
+        }
+        log.info("JobAdmissionQueue initialized: slots={}, policy={}", available,
+                schedulingPolicy.getClass().getSimpleName());
+    }
+
+    /**
+     * Orders jobs for admission; lower keys are admitted first.
+     */
+    public long admissionKey(TranscodingJob job, long acceptedAtMillis, Double inputDurationSeconds) {
+        return schedulingPolicy.key(job, acceptedAtMillis, inputDurationSeconds);
+    }
+
+    public boolean usesInputDuration() {
+        return schedulingPolicy.usesInputDuration();
+    }
+
+    /**
+     * Blocks until {@code job} is the best waiting job and a slot is free.
+     */
+    public void acquire(TranscodingJob job, long admissionKey) throws InterruptedException {
+        TranscodingJob.JobPriority priority = priorityOf(job);
+        Waiter waiter = new Waiter(admissionKey, sequence.incrementAndGet());
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            waiting.add(waiter);
+            queued.get(priority).incrementAndGet();
+            try {
+                while (available == 0 || waiting.peek() != waiter) {
+                    admitted.await();
+                }
+            } finally {
+                waiting.remove(waiter);
+                queued.get(priority).decrementAndGet();
+            }
+            available--;
+        } finally {
+            // the next waiter may also fit, or may be first now that this one left
+            admitted.signalAll();
+            lock.unlock();
+        }
+        waitTimers.get(priority).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            available++;
+            admitted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TranscodingJob.JobPriority priorityOf(TranscodingJob job) {
+        return job.getPriority() != null ? job.getPriority() : TranscodingJob.JobPriority.NORMAL;
+    }
+
+    private record Waiter(long key, long sequence) {
+    }
+}
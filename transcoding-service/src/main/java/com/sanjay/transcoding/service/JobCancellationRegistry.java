@@ -0,0 +1,205 @@
+package com.sanjay.transcoding.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanjay.common.entity.TranscodingJob;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Jobs running on this worker and what has to be torn down to stop them: ffmpeg processes started on
+ * the job's behalf and uploads in progress. Cancellations are broadcast on the control topic, so
+ * whichever instance took the request reaches the worker that owns the job.
+ * <p>
+ * The job is bound to the thread that processes it; work handed to other threads binds the
+ * job's handle there with {@link #bind}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobCancellationRegistry {
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Handle> running = new ConcurrentHashMap<>();
+    private final ThreadLocal<Handle> current = new ThreadLocal<>();
+    private Counter cancellations;
+
+    @PostConstruct
+    public void init() {
+        cancellations = Counter.builder("transcoding.cancellations")
+                .description("Running jobs stopped on this worker because they were cancelled").register(meterRegistry);
+    }
+
+    /**
+     * Registers {@code job} as running and binds it to the calling thread until {@link #unregister}.
+     */
+    public Handle register(TranscodingJob job) {
+        Handle handle = new Handle(job.getId(), job.getParentJobId());
+        running.put(job.getId(), handle);
+        current.set(handle);
+        return handle;
+    }
+
+    public void unregister(Handle handle) {
+        running.remove(handle.jobId, handle);
+        current.remove();
+    }
+
+    /**
+     * @return the handle of the job bound to the calling thread, or null outside of a job
+     */
+    public Handle current() {
+        return current.get();
+    }
+
+    /**
+     * Binds {@code handle} to the calling thread, e.g. a pool thread doing part of the job's work.
+     */
+    public Binding bind(Handle handle) {
+        Handle previous = current.get();
+        current.set(handle);
+        return () -> {
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+        };
+    }
+
+    /**
+     * Ties {@code process} to the current job, if any, so that cancelling the job kills it.
+     */
+    public void track(Process process) {
+        Handle handle = current.get();
+        if (handle != null) {
+            handle.track(process);
+        }
+    }
+
+    /**
+     * Runs {@code abort} when the current job, if any, is cancelled.
+     */
+    public void onCancel(Runnable abort) {
+        Handle handle = current.get();
+        if (handle != null) {
+            handle.onCancel(abort);
+        }
+    }
+
+    public void throwIfCancelled() {
+        Handle handle = current.get();
+        if (handle != null && handle.cancelled) {
+            throw new JobCancelledException(handle.jobId);
+        }
+    }
+
+    /**
+     * Stops {@code jobId} and, for a segmented parent, its segments, if they run on this worker.
+     */
+    public boolean cancel(String jobId) {
+        boolean found = false;
+        for (Handle handle : running.values()) {
+            if (jobId.equals(handle.jobId) || jobId.equals(handle.parentJobId)) {
+                found = true;
+                if (handle.cancel()) {
+                    cancellations.increment();
+                    log.info("Cancelled running job {}", handle.jobId);
+                }
+            }
+        }
+        return found;
+    }
+
+    @KafkaListener(topics = JobEventPublisher.CONTROL_TOPIC, groupId = "transcode-control-${random.uuid}",
+            properties = "auto.offset.reset=latest")
+    public void onControlMessage(String message) {
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> payload = objectMapper.readValue(message, Map.class);
+            if ("CANCEL".equals(payload.get("type")) && payload.get("jobId") instanceof String jobId) {
+                cancel(jobId);
+            }
+        } catch (Exception e) {
+            log.warn("Ignoring malformed control message: {}", e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    public interface Binding extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    public static class Handle {
+
+        private final String jobId;
+        private final String parentJobId;
+        private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+        private final List<Runnable> aborts = new CopyOnWriteArrayList<>();
+        private volatile boolean cancelled;
+
+        private Handle(String jobId, String parentJobId) {
+            this.jobId = jobId;
+            this.parentJobId = parentJobId;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void track(Process process) {
+            processes.add(process);
+            if (cancelled) {
+                destroyTree(process);
+            }
+        }
+
+        private void onCancel(Runnable abort) {
+            aborts.add(abort);
+            if (cancelled) {
+                abort.run();
+            }
+        }
+
+        private synchronized boolean cancel() {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            processes.forEach(Handle::destroyTree);
+            // aborts talk to object storage, keep them off the caller's thread
+            for (Runnable abort : aborts) {
+                Thread.ofVirtual().name("cancel-" + jobId).start(abort);
+            }
+            return true;
+        }
+
+        private static void destroyTree(Process process) {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+    }
+
+    public static class JobCancelledException extends IllegalStateException {
+        public JobCancelledException(String jobId) {
+            super("Job " + jobId + " was cancelled");
+        }
+    }
+}
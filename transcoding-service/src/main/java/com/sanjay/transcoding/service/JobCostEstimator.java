@@ -0,0 +1,99 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.RenditionOutput;
+import com.sanjay.common.entity.TranscodingJob;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Estimates how much CPU an encode needs, in CPU units where one unit is a 1080p30 libx264 encode.
+ * The weight scales with output pixel rate and codec complexity; the expected encode time additionally
+ * scales with the input duration.
+ */
+@Component
+@Slf4j
+public class JobCostEstimator {
+
+    private static final double REFERENCE_PIXEL_RATE = 1920.0 * 1080 * 30;
+    private static final double MIN_UNITS = 0.25;
+    private static final double DECODE_SHARE = 0.15;
+    private static final String DEFAULT_RESOLUTION = "1920x1080";
+    private static final int DEFAULT_FRAME_RATE = 30;
+
+    private static final Map<String, Double> CODEC_COMPLEXITY = Map.of(
+            "libx264", 1.0,
+            "h264", 1.0,
+            "libx265", 4.0,
+            "hevc", 4.0,
+            "libvpx", 1.5,
+            "libvpx-vp9", 3.0,
+            "libaom-av1", 8.0,
+            "libsvtav1", 3.0,
+            "mpeg4", 0.5,
+            "copy", 0.05
+    );
+
+    /**
+     * Encode seconds per second of input for a one-unit job on this hardware.
+     */
+    @Value("${transcoding.admission.seconds-per-unit-second:0.5}")
+    private double secondsPerUnitSecond;
+
+    @Value("${transcoding.gpu.enabled:false}")
+    private boolean gpuEnabled;
+
+    public double weight(TranscodingJob job) {
+        double codec = codecComplexity(job);
+        double units;
+        if (job.getJobType() == TranscodingJob.JobType.LADDER && !job.getRenditions().isEmpty()) {
+            // one decode feeds every rendition
+            units = DECODE_SHARE;
+            for (RenditionOutput rendition : job.getRenditions()) {
+                units += codec * pixelRate(rendition.getResolution(), job.getFrameRate()) / REFERENCE_PIXEL_RATE;
+            }
+        } else {
+            units = DECODE_SHARE + codec * pixelRate(job.getResolution(), job.getFrameRate()) / REFERENCE_PIXEL_RATE;
+        }
+        return Math.max(MIN_UNITS, units);
+    }
+
+    /**
+     * @return the expected encode time in seconds, or null when the input duration is unknown
+     */
+    public Long estimateSeconds(TranscodingJob job, Double inputDurationSeconds) {
+        if (inputDurationSeconds == null) {
+            return null;
+        }
+        return Math.round(inputDurationSeconds * weight(job) * secondsPerUnitSecond);
+    }
+
+    private double codecComplexity(TranscodingJob job) {
+        if (gpuEnabled && "GPU".equalsIgnoreCase(job.getProcessingMode())) {
+            // hardware encoders leave the CPU mostly to decode and muxing
+            return 0.25;
+        }
+        String codec = job.getVideoCodec() == null ? "libx264" : job.getVideoCodec().toLowerCase(Locale.ROOT);
+        return CODEC_COMPLEXITY.getOrDefault(codec, 1.0);
+    }
+
+    private double pixelRate(String resolution, Integer frameRate) {
+        List<Integer> dimensions = parseResolution(resolution != null ? resolution : DEFAULT_RESOLUTION);
+        int fps = frameRate != null && frameRate > 0 ? frameRate : DEFAULT_FRAME_RATE;
+        return (double) dimensions.get(0) * dimensions.get(1) * fps;
+    }
+
+    private List<Integer> parseResolution(String resolution) {
+        try {
+            String[] parts = resolution.toLowerCase(Locale.ROOT).split("x");
+            return List.of(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        } catch (Exception e) {
+            log.debug("Unparseable resolution '{}', assuming {}", resolution, DEFAULT_RESOLUTION);
+            return List.of(1920, 1080);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.sanjay.transcoding.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobEventPublisher {
+
+    public static final String JOBS_TOPIC = "transcoding-jobs";
+    public static final String STATUS_TOPIC = "transcoding-status";
+    public static final String CONTROL_TOPIC = "transcoding-control";
+    /** Each worker also consumes its own topic, for jobs the registry routed to it. */
+    public static final String DIRECT_JOBS_TOPIC_PREFIX = JOBS_TOPIC + "-";
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final WorkerRegistry workerRegistry;
+    private final TranscodingJobRepository jobRepository;
+
+    /**
+     * Keys jobs by their input file instead of their id, so that all jobs reading one upload go to the
+     * same partition and with it the same worker, whose input and probe caches are then warm.
+     */
+    @Value("${transcoding.dispatch.input-affinity:false}")
+    private boolean inputAffinity;
+
+    /**
+     * Sends {@code job} to the worker the registry picks for it or, when it knows none, to the shared topic.
+     */
+    public void dispatch(TranscodingJob job) {
+        boolean affinity = inputAffinity && job.getJobType() != TranscodingJob.JobType.SEGMENT
+                && job.getInputFile() != null && job.getInputFile().getId() != null;
+        String key = affinity ? "input:" + job.getInputFile().getId() : job.getId();
+        String target = workerRegistry.select(job, affinity ? key : null);
+        if (target == null) {
+            send(JOBS_TOPIC, job, key, affinity);
+            return;
+        }
+        // recorded so that the job can be sent elsewhere should the worker die before claiming it
+        if (jobRepository.assignWorker(job.getId(), target) == 0) {
+            log.info("Job {} is no longer queued, not dispatching it", job.getId());
+            return;
+        }
+        job.setWorkerId(target);
+        send(DIRECT_JOBS_TOPIC_PREFIX + target, job, job.getId(), false);
+    }
+
+    /**
+     * Sends a job that its input routed to a saturated worker on to whichever worker its id lands on.
+     */
+    public void spill(TranscodingJob job) {
+        send(JOBS_TOPIC, job, job.getId(), false);
+    }
+
+    private void send(String topic, TranscodingJob job, String key, boolean affinity) {
+        try {
+            // workers load the job by id; the entity's lazy associations cannot be serialized here
+            Map<String, Object> message = new HashMap<>();
+            message.put("id", job.getId());
+            message.put("affinity", affinity);
+            kafkaTemplate.send(topic, key, objectMapper.writeValueAsString(message));
+            log.info("Job sent to Kafka: {} (topic {}, key {})", job.getId(), topic, key);
+        } catch (Exception e) {
+            log.error("Failed to send job to Kafka: {}", job.getId(), e);
+        }
+    }
+
+    /**
+     * Tells every worker to stop {@code jobId}, and its segments, if they run there.
+     */
+    public void publishCancel(String jobId) {
+        try {
+            String json = objectMapper.writeValueAsString(Map.of("type", "CANCEL", "jobId", jobId));
+            kafkaTemplate.send(CONTROL_TOPIC, jobId, json);
+            log.info("Published cancellation of job {}", jobId);
+        } catch (Exception e) {
+            log.error("Failed to publish cancellation of job {}: {}", jobId, e.getMessage(), e);
+        }
+    }
+
+    public void publishStatus(TranscodingJob job, String status) {
+        applicationEventPublisher.publishEvent(new JobFinishedEvent(job, status));
+        if (job.getJobType() == TranscodingJob.JobType.SEGMENT) {
+            // segment sub-jobs roll up into their parent, users are only notified about the parent
+            return;
+        }
+        try {
+            Map<String, Object> event = Map.of(
+                    "jobId", job.getId(),
+                    "userId", job.getUser().getId(),
+                    "status", status,
+                    "outputFilename", job.getOutputFilename() != null ? job.getOutputFilename() : "",
+                    "timestamp", LocalDateTime.now().toString()
+            );
+            String json = objectMapper.writeValueAsString(event);
+            kafkaTemplate.send(STATUS_TOPIC, job.getId(), json);
+            log.info("Published job status event: jobId={}, status={}", job.getId(), status);
+        } catch (Exception e) {
+            log.error("Failed to publish job status event: {}", e.getMessage(), e);
+        }
+    }
+}
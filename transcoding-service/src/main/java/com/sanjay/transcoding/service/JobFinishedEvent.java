@@ -0,0 +1,10 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+
+/**
+ * Published in-process whenever a job reaches a terminal status, regardless of which
+ * component (worker, segment stitcher, cache) finished it.
+ */
+public record JobFinishedEvent(TranscodingJob job, String status) {
+}
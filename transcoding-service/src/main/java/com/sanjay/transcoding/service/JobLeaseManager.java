@@ -0,0 +1,227 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ownership of running jobs. A worker claims a job under a lease that expires unless its heartbeat
+ * renews it; jobs whose lease expired are put back on the queue by whichever worker notices first.
+ * Every claim hands out a new lease token, and job rows are only written while the writer still
+ * holds the current token and the job is still PROCESSING, so a worker that was presumed dead cannot
+ * overwrite its successor, nor a cancelled job be completed.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobLeaseManager {
+
+    private final TranscodingJobRepository jobRepository;
+    private final JobEventPublisher jobEventPublisher;
+    private final JobCancellationRegistry cancellations;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${WORKER_ID:default-worker}")
+    private String workerId;
+
+    @Value("${transcoding.lease.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    @Value("${transcoding.lease.max-attempts:3}")
+    private int maxAttempts;
+
+    private final Map<String, Long> held = new ConcurrentHashMap<>();
+    private Counter collisions;
+    private Counter lost;
+    private Counter requeued;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("transcoding.lease.held", held, Map::size)
+                .description("Job leases held by this worker").register(meterRegistry);
+        collisions = Counter.builder("transcoding.claim.collisions")
+                .description("Jobs dropped because another worker had already claimed them").register(meterRegistry);
+        lost = Counter.builder("transcoding.lease.lost")
+                .description("Leases this worker lost to expiry while still running the job").register(meterRegistry);
+        requeued = Counter.builder("transcoding.lease.requeued")
+                .description("Jobs put back on the queue after their owner's lease expired").register(meterRegistry);
+        log.info("JobLeaseManager initialized: ttl={}s, maxAttempts={}", ttlSeconds, maxAttempts);
+    }
+
+    /**
+     * Atomically takes ownership of a QUEUED job. Another worker may hold the same job after a Kafka
+     * redelivery or rebalance; whoever loses the conditional update drops it.
+     */
+    public boolean claim(TranscodingJob job) {
+        LocalDateTime startedAt = LocalDateTime.now();
+        if (jobRepository.claim(job.getId(), workerId, startedAt, startedAt.plusSeconds(ttlSeconds)) == 0) {
+            collisions.increment();
+            log.info("Job {} was claimed by another worker or is no longer QUEUED, dropping it", job.getId());
+            return false;
+        }
+        Long token = jobRepository.findLeaseToken(job.getId(), workerId);
+        if (token == null) {
+            // expired and re-claimed elsewhere between the two statements
+            lost.increment();
+            return false;
+        }
+        held.put(job.getId(), token);
+        job.setStatus(TranscodingJob.TranscodingStatus.PROCESSING);
+        job.setWorkerId(workerId);
+        job.setStartedAt(startedAt);
+        job.setProgressPercentage(5);
+        job.setLeaseToken(token);
+        return true;
+    }
+
+    /**
+     * Gives a claimed job back to the queue, e.g. when a shortcut that claimed it did not work out.
+     */
+    public void unclaim(TranscodingJob job) {
+        Long token = held.remove(job.getId());
+        if (token != null) {
+            jobRepository.unclaim(job.getId(), token);
+        }
+        job.setStatus(TranscodingJob.TranscodingStatus.QUEUED);
+        job.setWorkerId(null);
+        job.setStartedAt(null);
+        job.setProgressPercentage(0);
+    }
+
+    /**
+     * Takes over the lease of a job won by other means than {@link #claim}, e.g. the right to stitch a
+     * segmented job, so that its writes are fenced like those of a claimed job.
+     *
+     * @throws LeaseLostException when the job has no lease to take over
+     */
+    public void adopt(TranscodingJob job) {
+        if (job.getLeaseToken() == null) {
+            throw new LeaseLostException(job.getId());
+        }
+        held.put(job.getId(), job.getLeaseToken());
+    }
+
+    /**
+     * Wins the right to stitch a segmented job whose last segment finished; the winner then
+     * {@linkplain #adopt adopts} the job's lease.
+     */
+    public boolean claimStitch(String jobId) {
+        return jobRepository.claimSegmentStitch(jobId, workerId, LocalDateTime.now().plusSeconds(ttlSeconds)) > 0;
+    }
+
+    /**
+     * Stops renewing the lease; the job is finished or, for distributed segments, no longer runs here.
+     */
+    public void release(String jobId) {
+        held.remove(jobId);
+    }
+
+    public boolean isHeld(String jobId) {
+        return held.containsKey(jobId);
+    }
+
+    /**
+     * Saves {@code job} if this worker still holds its lease and the job was not cancelled. The row is
+     * locked while the token is compared, so a concurrent re-claim either happens before (and the write
+     * is refused) or after.
+     *
+     * @throws LeaseLostException when the job has been taken over
+     */
+    @Transactional
+    public TranscodingJob save(TranscodingJob job) {
+        Long token = held.get(job.getId());
+        TranscodingJob current = token != null ? jobRepository.findByIdForUpdate(job.getId()).orElse(null) : null;
+        if (current == null || !token.equals(current.getLeaseToken())
+                || current.getStatus() != TranscodingJob.TranscodingStatus.PROCESSING) {
+            held.remove(job.getId());
+            throw new LeaseLostException(job.getId());
+        }
+        // the heartbeat moves the expiry underneath the in-memory copy
+        job.setLeaseToken(current.getLeaseToken());
+        job.setLeaseExpiresAt(current.getLeaseExpiresAt());
+        job.setAttempts(current.getAttempts());
+        return jobRepository.save(job);
+    }
+
+    @Scheduled(fixedDelayString = "${transcoding.lease.heartbeat-ms:10000}")
+    public void heartbeat() {
+        LocalDateTime expiresAt = LocalDateTime.now().plusSeconds(ttlSeconds);
+        held.forEach((jobId, token) -> {
+            try {
+                if (jobRepository.renewLease(jobId, token, expiresAt) == 0) {
+                    held.remove(jobId, token);
+                    lost.increment();
+                    log.warn("Lease on job {} was lost, stopping it", jobId);
+                    // also catches cancellations whose broadcast this worker missed
+                    cancellations.cancel(jobId);
+                }
+            } catch (Exception e) {
+                log.warn("Could not renew lease on job {}: {}", jobId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Requeues jobs of workers that stopped heartbeating, or fails them once they used up their attempts.
+     * Every worker runs this; the conditional updates let exactly one of them act on each job.
+     */
+    @Scheduled(fixedDelayString = "${transcoding.lease.reaper-interval-ms:5000}")
+    public void reapExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        for (TranscodingJob job : jobRepository.findExpiredLeases(now)) {
+            try {
+                int attempts = job.getAttempts() != null ? job.getAttempts() : 1;
+                if (attempts >= maxAttempts) {
+                    String message = "Worker " + job.getWorkerId() + " stopped responding, giving up after "
+                            + attempts + " attempts";
+                    if (jobRepository.failExpired(job.getId(), job.getLeaseToken(), message, now) > 0) {
+                        log.error("Job {} failed: {}", job.getId(), message);
+                        job.setStatus(TranscodingJob.TranscodingStatus.FAILED);
+                        job.setErrorMessage(message);
+                        job.setCompletedAt(now);
+                        jobEventPublisher.publishStatus(job, "FAILED");
+                    }
+                } else if (job.getJobType() == TranscodingJob.JobType.SEGMENTED) {
+                    // its segments are done, so only the stitch is retried, here
+                    if (jobRepository.reclaimStitch(job.getId(), job.getLeaseToken(), workerId, now,
+                            now.plusSeconds(ttlSeconds)) > 0) {
+                        log.warn("Lease of worker {} on the stitch of job {} expired, retrying it (attempt {} of {})",
+                                job.getWorkerId(), job.getId(), attempts + 1, maxAttempts);
+                        requeued.increment();
+                        applicationEventPublisher.publishEvent(new SegmentStitchRetryEvent(job));
+                    }
+                } else if (jobRepository.requeueExpired(job.getId(), job.getLeaseToken(), now) > 0) {
+                    log.warn("Lease of worker {} on job {} expired, requeueing (attempt {} of {})",
+                            job.getWorkerId(), job.getId(), attempts, maxAttempts);
+                    requeued.increment();
+                    job.setStatus(TranscodingJob.TranscodingStatus.QUEUED);
+                    applicationEventPublisher.publishEvent(new JobRequeuedEvent(job));
+                    jobEventPublisher.dispatch(job);
+                }
+            } catch (Exception e) {
+                log.warn("Could not reap expired job {}: {}", job.getId(), e.getMessage());
+            }
+        }
+    }
+
+    public static class LeaseLostException extends IllegalStateException {
+        public LeaseLostException(String jobId) {
+            super("Lease on job " + jobId + " is held by another worker or the job was cancelled");
+        }
+    }
+}
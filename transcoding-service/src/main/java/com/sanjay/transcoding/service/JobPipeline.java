@@ -0,0 +1,287 @@
+package com.sanjay.transcoding.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits a job into fetch, probe, encode, upload and finalize stages, each with its own concurrency
+ * limit. Jobs run on virtual threads, so a job waiting on I/O costs no platform thread, and only the
+ * encode stage is bound to the worker's CPU. Downloads and uploads of neighbouring jobs overlap
+ * with encoding instead of holding an encode slot.
+ * <p>
+ * The encode stage admits by weight: each encode takes its estimated CPU units out of a budget, in
+ * FIFO order, so one 4K HEVC encode can use the room of several 360p ones. The budget can be resized
+ * at runtime; encodes already running keep their share when it shrinks. A share of the budget can be
+ * reserved for premium jobs: other encodes also pass a second gate, which spans the whole budget while
+ * no premium encode waits and shrinks by the reserved share while one does. Standard work so uses the
+ * reserved share when premium jobs do not need it, and a waiting premium encode gets the next units freed.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobPipeline {
+
+    public enum Stage { FETCH, PROBE, ENCODE, UPLOAD, FINALIZE }
+
+    @FunctionalInterface
+    public interface StageTask<T> {
+        T call() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface StageAction {
+        void run() throws Exception;
+    }
+
+    /** Encode budget granularity: permits per CPU unit. */
+    private static final int PERMITS_PER_UNIT = 100;
+
+    private final MeterRegistry meterRegistry;
+    private final JobCancellationRegistry cancellations;
+
+    @Value("${transcoding.admission.cpu-units:${transcoding.processing.max-concurrent-jobs:4}}")
+    private double encodeUnits;
+
+    @Value("${transcoding.pipeline.fetch-concurrency:8}")
+    private int fetchConcurrency;
+
+    @Value("${transcoding.pipeline.probe-concurrency:8}")
+    private int probeConcurrency;
+
+    @Value("${transcoding.pipeline.upload-concurrency:8}")
+    private int uploadConcurrency;
+
+    @Value("${transcoding.pipeline.finalize-concurrency:16}")
+    private int finalizeConcurrency;
+
+    @Value("${transcoding.qos.premium.reserved-share:0.25}")
+    private double reservedEncodeShare;
+
+    private final Map<Stage, StageGate> gates = new EnumMap<>(Stage.class);
+    /** Encode budget open to jobs that may not use the reserved share, null when nothing is reserved. */
+    private StageGate sharedEncode;
+    /** Encodes allowed to use the reserved share that are waiting for the encode budget. */
+    private final AtomicInteger reservedWaiting = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        gates.put(Stage.FETCH, new StageGate("fetch", fetchConcurrency, 1));
+        gates.put(Stage.PROBE, new StageGate("probe", probeConcurrency, 1));
+        gates.put(Stage.ENCODE, new StageGate("encode", (int) Math.round(encodeUnits * PERMITS_PER_UNIT),
+                PERMITS_PER_UNIT));
+        gates.put(Stage.UPLOAD, new StageGate("upload", uploadConcurrency, 1));
+        gates.put(Stage.FINALIZE, new StageGate("finalize", finalizeConcurrency, 1));
+        if (reservedEncodeShare > 0) {
+            sharedEncode = new StageGate("encode_shared", sharedPermits(gates.get(Stage.ENCODE).capacity),
+                    PERMITS_PER_UNIT);
+        }
+        log.info("JobPipeline initialized: fetch={}, probe={}, encode={} cpu units ({} reserved), upload={}, finalize={}",
+                fetchConcurrency, probeConcurrency, encodeUnits, reservedEncodeShare, uploadConcurrency,
+                finalizeConcurrency);
+    }
+
+    public <T> T run(Stage stage, StageTask<T> task) throws Exception {
+        return run(stage, 1.0, task);
+    }
+
+    public <T> T run(Stage stage, double units, StageTask<T> task) throws Exception {
+        return run(stage, units, false, task);
+    }
+
+    /**
+     * @param units the job's share of the stage; CPU units for the encode stage, ignored elsewhere
+     * @param reserved whether the job may use the reserved share of the encode budget
+     */
+    public <T> T run(Stage stage, double units, boolean reserved, StageTask<T> task) throws Exception {
+        StageGate gate = gates.get(stage);
+        StageGate shared = stage == Stage.ENCODE && !reserved ? sharedEncode : null;
+        Admission sharedAdmission = shared != null ? shared.enter(shared.permitsFor(units)) : null;
+        try {
+            Admission admission = stage == Stage.ENCODE && reserved && sharedEncode != null
+                    ? enterReserved(gate, units) : gate.enter(gate.permitsFor(units));
+            try {
+                // a job cancelled while it waited hands the slot straight back
+                cancellations.throwIfCancelled();
+                return task.call();
+            } finally {
+                gate.exit(admission);
+            }
+        } finally {
+            if (sharedAdmission != null) {
+                shared.exit(sharedAdmission);
+            }
+        }
+    }
+
+    public void execute(Stage stage, StageAction action) throws Exception {
+        run(stage, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public double encodeUnits() {
+        return (double) gates.get(Stage.ENCODE).capacity / PERMITS_PER_UNIT;
+    }
+
+    public synchronized void resizeEncodeUnits(double units) {
+        gates.get(Stage.ENCODE).resize((int) Math.round(units * PERMITS_PER_UNIT));
+        resizeSharedEncode();
+    }
+
+    /**
+     * Holds the reserved share back from other encodes for as long as a premium encode waits for the budget.
+     */
+    private Admission enterReserved(StageGate gate, double units) throws InterruptedException {
+        if (reservedWaiting.getAndIncrement() == 0) {
+            resizeSharedEncode();
+        }
+        try {
+            return gate.enter(gate.permitsFor(units));
+        } finally {
+            if (reservedWaiting.decrementAndGet() == 0) {
+                resizeSharedEncode();
+            }
+        }
+    }
+
+    private synchronized void resizeSharedEncode() {
+        if (sharedEncode != null) {
+            sharedEncode.resize(sharedPermits(gates.get(Stage.ENCODE).capacity));
+        }
+    }
+
+    private int sharedPermits(int encodePermits) {
+        if (reservedWaiting.get() == 0) {
+            return encodePermits;
+        }
+        // at least one unit, or a small budget would shut everyone else out
+        return (int) Math.max(Math.min(PERMITS_PER_UNIT, encodePermits),
+                Math.round(encodePermits * (1 - Math.min(1.0, reservedEncodeShare))));
+    }
+
+    public int waiting(Stage stage) {
+        return gates.get(stage).waiting.get();
+    }
+
+    public int active(Stage stage) {
+        return gates.get(stage).active.get();
+    }
+
+    /**
+     * @return how many jobs have entered the stage since startup
+     */
+    public long admitted(Stage stage) {
+        return gates.get(stage).admitted.get();
+    }
+
+    private class StageGate {
+
+        private final ResizableSemaphore permits;
+        private final TreeMap<Integer, Integer> pending = new TreeMap<>();
+        private volatile int capacity;
+        private final int permitsPerUnit;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong admitted = new AtomicLong();
+        private final Timer waitTimer;
+        private final Timer serviceTimer;
+
+        private StageGate(String name, int capacity, int permitsPerUnit) {
+            this.capacity = Math.max(1, capacity);
+            this.permitsPerUnit = permitsPerUnit;
+            // fair, so a heavy encode at the head of the queue is not overtaken by lighter ones forever
+            this.permits = new ResizableSemaphore(this.capacity);
+            Gauge.builder("transcoding.pipeline.queue.depth", waiting, AtomicInteger::get)
+                    .tag("stage", name).description("Jobs waiting to enter the stage").register(meterRegistry);
+            Gauge.builder("transcoding.pipeline.active", active, AtomicInteger::get)
+                    .tag("stage", name).description("Jobs currently in the stage").register(meterRegistry);
+            this.waitTimer = Timer.builder("transcoding.pipeline.wait")
+                    .tag("stage", name).description("Time spent waiting for a stage slot").register(meterRegistry);
+            this.serviceTimer = Timer.builder("transcoding.pipeline.duration")
+                    .tag("stage", name).description("Time spent in the stage").register(meterRegistry);
+            if (permitsPerUnit > 1) {
+                Gauge.builder("transcoding.pipeline.units.used", permits,
+                                semaphore -> (double) (this.capacity - semaphore.availablePermits()) / permitsPerUnit)
+                        .tag("stage", name).description("Budget units held by jobs in the stage").register(meterRegistry);
+            }
+        }
+
+        private synchronized void resize(int newCapacity) {
+            // never below a waiting request, which could then not be admitted at all
+            newCapacity = Math.max(Math.max(1, newCapacity), pending.isEmpty() ? 0 : pending.lastKey());
+            if (newCapacity > capacity) {
+                permits.release(newCapacity - capacity);
+            } else if (newCapacity < capacity) {
+                // may go negative until enough running jobs have finished
+                permits.reducePermits(capacity - newCapacity);
+            }
+            capacity = newCapacity;
+        }
+
+        private int permitsFor(double units) {
+            if (permitsPerUnit == 1) {
+                return 1;
+            }
+            // a job larger than the whole budget runs alone rather than never
+            return (int) Math.min(capacity, Math.max(1, Math.round(units * permitsPerUnit)));
+        }
+
+        private Admission enter(int count) throws InterruptedException {
+            long start = System.nanoTime();
+            waiting.incrementAndGet();
+            synchronized (this) {
+                count = Math.min(count, capacity);
+                pending.merge(count, 1, Integer::sum);
+            }
+            try {
+                permits.acquire(count);
+            } finally {
+                waiting.decrementAndGet();
+                synchronized (this) {
+                    pending.computeIfPresent(count, (size, waiters) -> waiters > 1 ? waiters - 1 : null);
+                }
+            }
+            long now = System.nanoTime();
+            waitTimer.record(now - start, TimeUnit.NANOSECONDS);
+            active.incrementAndGet();
+            admitted.incrementAndGet();
+            return new Admission(now, count);
+        }
+
+        private void exit(Admission admission) {
+            serviceTimer.record(System.nanoTime() - admission.enteredAt(), TimeUnit.NANOSECONDS);
+            active.decrementAndGet();
+            permits.release(admission.permits());
+        }
+    }
+
+    private record Admission(long enteredAt, int permits) {
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
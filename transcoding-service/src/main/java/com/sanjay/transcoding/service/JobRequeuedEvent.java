@@ -0,0 +1,9 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+
+/**
+ * Published in-process when a running job is put back on the queue because its worker's lease expired.
+ */
+public record JobRequeuedEvent(TranscodingJob job) {
+}
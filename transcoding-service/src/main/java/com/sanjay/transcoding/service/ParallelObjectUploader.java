@@ -0,0 +1,231 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.transcoding.config.MultipartMinioClient;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.messages.Part;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Uploads output files as S3 multipart uploads with several parts in flight. A pipelined upload
+ * sends each part as soon as ffmpeg has written past it, which is only valid for append-only
+ * outputs (MPEG-TS, fragmented MP4) that never rewrite bytes they already wrote.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ParallelObjectUploader {
+
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int MAX_PART_ATTEMPTS = 3;
+
+    private final MinioClient minioClient;
+    private final MultipartMinioClient multipartClient;
+    private final JobCancellationRegistry cancellations;
+
+    @Value("${transcoding.upload.part-size:16777216}")
+    private long partSize;
+
+    @Value("${transcoding.upload.parallelism:4}")
+    private int parallelism;
+
+    @Value("${transcoding.upload.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @PostConstruct
+    public void init() {
+        if (partSize < MIN_PART_SIZE) {
+            log.warn("transcoding.upload.part-size {} is below the S3 minimum, using {}", partSize, MIN_PART_SIZE);
+            partSize = MIN_PART_SIZE;
+        }
+    }
+
+    public void upload(String bucket, String objectKey, File file, String contentType) throws Exception {
+        Upload upload = new Upload(bucket, objectKey, file, contentType);
+        upload.finish();
+    }
+
+    /**
+     * Starts uploading {@code file} while it is still being written. Call {@link Upload#finish()} once
+     * the writer has exited successfully, or {@link Upload#abort()} otherwise.
+     */
+    public Upload beginPipelined(String bucket, String objectKey, File file, String contentType) {
+        Upload upload = new Upload(bucket, objectKey, file, contentType);
+        upload.poller = Thread.ofVirtual().name("upload-" + file.getName()).start(upload::poll);
+        return upload;
+    }
+
+    public class Upload {
+
+        private final String bucket;
+        private final String objectKey;
+        private final File file;
+        private final String contentType;
+        private final Semaphore inFlight = new Semaphore(parallelism);
+        private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        private final List<Future<Part>> parts = new ArrayList<>();
+        private final long startTime = System.currentTimeMillis();
+        private String uploadId;
+        private long nextOffset;
+        private volatile boolean writing = true;
+        private volatile Exception failure;
+        private Thread poller;
+
+        private Upload(String bucket, String objectKey, File file, String contentType) {
+            this.bucket = bucket;
+            this.objectKey = objectKey;
+            this.file = file;
+            this.contentType = contentType;
+            cancellations.onCancel(this::abort);
+        }
+
+        private void poll() {
+            try {
+                while (writing) {
+                    sendCompletedParts(false);
+                    Thread.sleep(pollIntervalMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failure = e;
+                log.error("Pipelined upload of {} failed: {}", objectKey, e.getMessage());
+            }
+        }
+
+        /**
+         * Uploads the remainder of the file and completes the object.
+         */
+        public void finish() throws Exception {
+            writing = false;
+            try {
+                if (poller != null) {
+                    poller.join();
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (uploadId == null && file.length() <= partSize) {
+                    putWhole();
+                    return;
+                }
+                sendCompletedParts(true);
+                Part[] completed = new Part[parts.size()];
+                for (int i = 0; i < completed.length; i++) {
+                    completed[i] = awaitPart(parts.get(i));
+                }
+                multipartClient.completeUpload(bucket, objectKey, uploadId, completed);
+                long elapsedMs = Math.max(1, System.currentTimeMillis() - startTime);
+                log.info("Uploaded {}/{} ({} bytes, {} parts) in {} ms", bucket, objectKey, file.length(),
+                        completed.length, elapsedMs);
+            } catch (Exception e) {
+                abort();
+                throw e;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        public void abort() {
+            writing = false;
+            if (poller != null) {
+                poller.interrupt();
+            }
+            parts.forEach(part -> part.cancel(true));
+            executor.shutdownNow();
+            if (uploadId != null) {
+                try {
+                    multipartClient.abortUpload(bucket, objectKey, uploadId);
+                    log.info("Aborted multipart upload of {}/{}", bucket, objectKey);
+                } catch (Exception e) {
+                    log.warn("Failed to abort multipart upload of {}: {}", objectKey, e.getMessage());
+                }
+                uploadId = null;
+            }
+        }
+
+        /**
+         * Submits every full part below the current file length, and the tail as well when
+         * {@code last} is set. Blocks while {@code parallelism} parts are already in flight.
+         */
+        private synchronized void sendCompletedParts(boolean last) throws Exception {
+            long length = file.exists() ? file.length() : 0;
+            while (length - nextOffset >= partSize || (last && nextOffset < length)) {
+                if (uploadId == null) {
+                    uploadId = multipartClient.createUpload(bucket, objectKey, contentType);
+                }
+                long offset = nextOffset;
+                int size = (int) Math.min(partSize, length - offset);
+                int partNumber = parts.size() + 1;
+                inFlight.acquire();
+                parts.add(executor.submit(() -> {
+                    try {
+                        return sendPart(partNumber, offset, size);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+                nextOffset += size;
+            }
+        }
+
+        private Part sendPart(int partNumber, long offset, int size) throws Exception {
+            byte[] data = new byte[size];
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of " + file.getName() + " at part " + partNumber);
+                    }
+                }
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return new Part(partNumber, multipartClient.uploadPart(bucket, objectKey, uploadId, partNumber, data, size));
+                } catch (Exception e) {
+                    if (attempt >= MAX_PART_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.warn("Part {} of {} failed (attempt {}): {}", partNumber, objectKey, attempt, e.getMessage());
+                }
+            }
+        }
+
+        private Part awaitPart(Future<Part> part) throws Exception {
+            try {
+                return part.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+
+        private void putWhole() throws Exception {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                minioClient.putObject(PutObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(objectKey)
+                        .stream(fis, file.length(), -1)
+                        .contentType(contentType)
+                        .build());
+            }
+        }
+    }
+}
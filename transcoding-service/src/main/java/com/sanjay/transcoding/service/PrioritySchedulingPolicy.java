@@ -0,0 +1,27 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jobs run by priority. Aging keeps LOW jobs from starving: every {@code aging-step-seconds} a job
+ * has waited counts as one priority level.
+ */
+@Component
+@ConditionalOnProperty(name = "transcoding.scheduling.policy", havingValue = "priority", matchIfMissing = true)
+public class PrioritySchedulingPolicy implements SchedulingPolicy {
+
+    @Value("${transcoding.queue.aging-step-seconds:120}")
+    private long agingStepSeconds;
+
+    @Override
+    public long key(TranscodingJob job, long acceptedAtMillis, Double inputDurationSeconds) {
+        TranscodingJob.JobPriority priority =
+                job.getPriority() != null ? job.getPriority() : TranscodingJob.JobPriority.NORMAL;
+        return acceptedAtMillis - priority.ordinal() * TimeUnit.SECONDS.toMillis(agingStepSeconds);
+    }
+}
@@ -0,0 +1,244 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns ffmpeg's {@code -progress} output into percent complete, fps, speed and ETA for running jobs.
+ * Updates only touch memory; a single flusher writes each job's latest values with a column update
+ * every {@code flush-interval-ms}, so the database sees at most one write per job and interval no
+ * matter how often ffmpeg reports.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProgressTracker {
+
+    /** The encode occupies this band of the job's progress, fetch before and upload after it. */
+    public static final int ENCODE_FROM_PERCENT = 15;
+    public static final int ENCODE_TO_PERCENT = 85;
+
+    private static final Pattern PROGRESS_KEY = Pattern.compile("[a-z0-9_]+");
+    private static final Pattern HEADER_DURATION = Pattern.compile("Duration: (\\d+):(\\d{2}):(\\d{2}(?:\\.\\d+)?)");
+
+    private final TranscodingJobRepository jobRepository;
+    private final JobCancellationRegistry cancellations;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Entry> tracked = new ConcurrentHashMap<>();
+    private Counter writes;
+
+    @PostConstruct
+    public void init() {
+        writes = Counter.builder("transcoding.progress.writes")
+                .description("Progress updates written to the database").register(meterRegistry);
+    }
+
+    /**
+     * Starts following {@code job}'s encode. Without a probed duration, the duration ffmpeg prints for
+     * its input is used.
+     */
+    public void begin(TranscodingJob job, Double durationSeconds) {
+        tracked.put(job.getId(), new Entry(job, durationSeconds, true));
+    }
+
+    /**
+     * Records a milestone outside of the encode, e.g. the input being ready.
+     */
+    public void set(TranscodingJob job, int percent) {
+        Entry entry = tracked.computeIfAbsent(job.getId(), id -> new Entry(job, null, false));
+        entry.advance(percent, entry.fps, entry.speed, entry.etaSeconds);
+    }
+
+    public void end(String jobId) {
+        tracked.remove(jobId);
+    }
+
+    /**
+     * @return a consumer for the output lines of one ffmpeg encode run by the current job, to be closed
+     *         when the process ends. Its fps counts towards {@link #totalFps}; its progress moves the
+     *         job's percent only for encodes followed with {@link #begin}
+     */
+    public Listener listener() {
+        JobCancellationRegistry.Handle handle = cancellations.current();
+        Entry entry = handle != null ? tracked.get(handle.getJobId()) : null;
+        return new Listener(entry);
+    }
+
+    /**
+     * @return the frames per second encoded right now, summed over every ffmpeg encode of this worker,
+     *         including the parallel segment encodes of segmented jobs
+     */
+    public double totalFps() {
+        double total = 0;
+        for (Entry entry : tracked.values()) {
+            for (double fps : entry.rates.values()) {
+                total += fps;
+            }
+        }
+        return total;
+    }
+
+    @Scheduled(fixedDelayString = "${transcoding.progress.flush-interval-ms:2000}")
+    public void flush() {
+        for (Entry entry : tracked.values()) {
+            if (!entry.dirty) {
+                continue;
+            }
+            entry.dirty = false;
+            TranscodingJob job = entry.job;
+            try {
+                jobRepository.updateEncodeProgress(job.getId(), job.getLeaseToken(), entry.percent, entry.fps,
+                        entry.speed, entry.etaSeconds);
+                writes.increment();
+            } catch (Exception e) {
+                log.warn("Could not write progress of job {}: {}", job.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final TranscodingJob job;
+        private final boolean followEncode;
+        /** Latest fps of each ffmpeg process of the job that is still running. */
+        private final Map<Listener, Double> rates = new ConcurrentHashMap<>();
+        private volatile Double durationSeconds;
+        private volatile int percent;
+        private volatile Double fps;
+        private volatile Double speed;
+        private volatile Long etaSeconds;
+        private volatile boolean dirty;
+
+        private Entry(TranscodingJob job, Double durationSeconds, boolean followEncode) {
+            this.job = job;
+            this.followEncode = followEncode;
+            this.durationSeconds = durationSeconds;
+            this.percent = job.getProgressPercentage() != null ? job.getProgressPercentage() : 0;
+        }
+
+        private void encoded(double outTimeSeconds, Double fps, Double speed) {
+            Double duration = durationSeconds;
+            if (duration == null || duration <= 0) {
+                advance(percent, fps, speed, null);
+                return;
+            }
+            double fraction = Math.min(1.0, outTimeSeconds / duration);
+            int encodePercent = ENCODE_FROM_PERCENT
+                    + (int) ((ENCODE_TO_PERCENT - ENCODE_FROM_PERCENT) * fraction);
+            Long eta = speed != null && speed > 0
+                    ? Math.round(Math.max(0, duration - outTimeSeconds) / speed) : null;
+            advance(encodePercent, fps, speed, eta);
+        }
+
+        private synchronized void advance(int newPercent, Double newFps, Double newSpeed, Long newEta) {
+            // a CPU fallback restarts ffmpeg from zero, never move backwards
+            percent = Math.max(percent, newPercent);
+            fps = newFps;
+            speed = newSpeed;
+            etaSeconds = newEta;
+            // later full-entity saves must not write stale values
+            job.setProgressPercentage(percent);
+            job.setFps(fps);
+            job.setSpeed(speed);
+            job.setEtaSeconds(etaSeconds);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Parses one ffmpeg process's {@code -progress} blocks; a block ends with {@code progress=continue}
+     * or {@code progress=end}.
+     */
+    public static class Listener implements AutoCloseable {
+
+        private final Entry entry;
+        private double outTimeSeconds;
+        private Double fps;
+        private Double speed;
+
+        private Listener(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * @return true when {@code line} was progress output rather than log output
+         */
+        public boolean accept(String line) {
+            int separator = line.indexOf('=');
+            if (separator <= 0 || !PROGRESS_KEY.matcher(line.substring(0, separator)).matches()) {
+                if (entry != null && entry.followEncode && entry.durationSeconds == null) {
+                    parseHeaderDuration(line);
+                }
+                return false;
+            }
+            String key = line.substring(0, separator);
+            String value = line.substring(separator + 1).trim();
+            switch (key) {
+                case "out_time_us", "out_time_ms" -> {
+                    // both are microseconds, out_time_ms is misnamed
+                    Double micros = parse(value);
+                    if (micros != null) {
+                        outTimeSeconds = micros / 1_000_000;
+                    }
+                }
+                case "fps" -> fps = parse(value);
+                case "speed" -> speed = parse(value.endsWith("x") ? value.substring(0, value.length() - 1) : value);
+                case "progress" -> {
+                    if (entry == null) {
+                        break;
+                    }
+                    if ("end".equals(value) || fps == null) {
+                        entry.rates.remove(this);
+                    } else {
+                        entry.rates.put(this, fps);
+                    }
+                    if (entry.followEncode) {
+                        entry.encoded(outTimeSeconds, fps, speed);
+                    }
+                }
+                default -> {
+                    // frame, bitrate, total_size, dup_frames, ... are not tracked
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (entry != null) {
+                entry.rates.remove(this);
+            }
+        }
+
+        private void parseHeaderDuration(String line) {
+            Matcher matcher = HEADER_DURATION.matcher(line);
+            if (matcher.find()) {
+                entry.durationSeconds = Integer.parseInt(matcher.group(1)) * 3600.0
+                        + Integer.parseInt(matcher.group(2)) * 60.0
+                        + Double.parseDouble(matcher.group(3));
+            }
+        }
+
+        private static Double parse(String value) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                // N/A until ffmpeg has output
+                return null;
+            }
+        }
+    }
+}
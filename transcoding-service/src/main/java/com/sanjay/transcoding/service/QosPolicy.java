@@ -0,0 +1,135 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.common.entity.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Quality-of-service classes derived from the role in the caller's token. PREMIUM jobs get a priority
+ * floor, a faster encoder preset, segmented encoding from a shorter input length and the share of
+ * the encode budget that STANDARD jobs cannot take. End-to-end latency is recorded per class against
+ * its target, so each class can be seen to meet it under mixed load.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class QosPolicy {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${transcoding.qos.premium.min-priority:HIGH}")
+    private TranscodingJob.JobPriority premiumMinPriority;
+
+    @Value("${transcoding.qos.premium.preset:veryfast}")
+    private String premiumPreset;
+
+    @Value("${transcoding.qos.standard.preset:medium}")
+    private String standardPreset;
+
+    @Value("${transcoding.qos.premium.segment-min-duration-seconds:300}")
+    private long premiumSegmentMinDurationSeconds;
+
+    @Value("${transcoding.qos.premium.latency-target-seconds:900}")
+    private long premiumLatencyTargetSeconds;
+
+    @Value("${transcoding.qos.standard.latency-target-seconds:3600}")
+    private long standardLatencyTargetSeconds;
+
+    private final Map<TranscodingJob.QosClass, Duration> targets = new EnumMap<>(TranscodingJob.QosClass.class);
+    private final Map<TranscodingJob.QosClass, Timer> latencies = new EnumMap<>(TranscodingJob.QosClass.class);
+    private final Map<TranscodingJob.QosClass, Counter> met = new EnumMap<>(TranscodingJob.QosClass.class);
+    private final Map<TranscodingJob.QosClass, Counter> missed = new EnumMap<>(TranscodingJob.QosClass.class);
+
+    @PostConstruct
+    public void init() {
+        targets.put(TranscodingJob.QosClass.STANDARD, Duration.ofSeconds(standardLatencyTargetSeconds));
+        targets.put(TranscodingJob.QosClass.PREMIUM, Duration.ofSeconds(premiumLatencyTargetSeconds));
+        for (TranscodingJob.QosClass qosClass : TranscodingJob.QosClass.values()) {
+            String name = qosClass.name().toLowerCase(Locale.ROOT);
+            Duration target = targets.get(qosClass);
+            latencies.put(qosClass, Timer.builder("transcoding.qos.latency")
+                    .tag("class", name)
+                    .description("Time from submission to completion")
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .serviceLevelObjectives(target)
+                    .register(meterRegistry));
+            met.put(qosClass, Counter.builder("transcoding.qos.slo").tag("class", name).tag("outcome", "met")
+                    .description("Completed jobs by whether they met their class latency target")
+                    .register(meterRegistry));
+            missed.put(qosClass, Counter.builder("transcoding.qos.slo").tag("class", name).tag("outcome", "missed")
+                    .description("Completed jobs by whether they met their class latency target")
+                    .register(meterRegistry));
+            Gauge.builder("transcoding.qos.latency.target", target, Duration::toSeconds)
+                    .tag("class", name).description("Latency target of the class in seconds").register(meterRegistry);
+        }
+        log.info("QosPolicy initialized: premium floor={}, presets={}/{}, targets={}s/{}s",
+                premiumMinPriority, premiumPreset, standardPreset, premiumLatencyTargetSeconds,
+                standardLatencyTargetSeconds);
+    }
+
+    public TranscodingJob.QosClass classify(User user) {
+        return user != null && user.getRole() == User.UserRole.PREMIUM
+                ? TranscodingJob.QosClass.PREMIUM : TranscodingJob.QosClass.STANDARD;
+    }
+
+    /**
+     * Puts a new job submitted by {@code user} in its class and raises its priority to the class floor.
+     */
+    public void apply(TranscodingJob job, User user) {
+        TranscodingJob.QosClass qosClass = classify(user);
+        job.setQosClass(qosClass);
+        if (qosClass == TranscodingJob.QosClass.PREMIUM
+                && (job.getPriority() == null || job.getPriority().compareTo(premiumMinPriority) < 0)) {
+            job.setPriority(premiumMinPriority);
+        }
+    }
+
+    public boolean isPremium(TranscodingJob job) {
+        return job.getQosClass() == TranscodingJob.QosClass.PREMIUM;
+    }
+
+    public String preset(TranscodingJob job) {
+        return isPremium(job) ? premiumPreset : standardPreset;
+    }
+
+    /**
+     * @return the input length from which the job is split into segments, or null for the default
+     */
+    public Long segmentMinDurationSeconds(TranscodingJob job) {
+        return isPremium(job) ? premiumSegmentMinDurationSeconds : null;
+    }
+
+    @EventListener
+    public void onJobFinished(JobFinishedEvent event) {
+        TranscodingJob job = event.job();
+        if (job.getStatus() != TranscodingJob.TranscodingStatus.COMPLETED
+                || job.getJobType() == TranscodingJob.JobType.SEGMENT
+                || job.getCreatedAt() == null || job.getCompletedAt() == null) {
+            return;
+        }
+        TranscodingJob.QosClass qosClass = job.getQosClass() != null ? job.getQosClass() : TranscodingJob.QosClass.STANDARD;
+        Duration latency = Duration.between(job.getCreatedAt(), job.getCompletedAt());
+        latencies.get(qosClass).record(latency);
+        if (latency.compareTo(targets.get(qosClass)) <= 0) {
+            met.get(qosClass).increment();
+        } else {
+            missed.get(qosClass).increment();
+            log.info("Job {} ({}) took {}s, over its {}s target", job.getId(), qosClass, latency.toSeconds(),
+                    targets.get(qosClass).toSeconds());
+        }
+    }
+}
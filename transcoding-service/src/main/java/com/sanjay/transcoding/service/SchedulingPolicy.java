@@ -0,0 +1,27 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+
+/**
+ * Decides the order in which queued jobs run, on the worker's run queue and within a user's dispatch
+ * queue. The policy is chosen with {@code transcoding.scheduling.policy}.
+ * <p>
+ * A job's key is computed once, when it is accepted, and lower keys run first. Keys are milliseconds
+ * on the acceptance clock, so time spent waiting always counts against a job's other criteria and
+ * no job waits forever behind later arrivals.
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * @param inputDurationSeconds the probed input duration, when {@link #usesInputDuration} and known
+     */
+    long key(TranscodingJob job, long acceptedAtMillis, Double inputDurationSeconds);
+
+    /**
+     * Whether {@link #key} depends on the input duration, in which case workers probe jobs before
+     * admitting them.
+     */
+    default boolean usesInputDuration() {
+        return false;
+    }
+}
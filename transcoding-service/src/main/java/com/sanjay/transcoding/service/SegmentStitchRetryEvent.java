@@ -0,0 +1,10 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+
+/**
+ * Published in-process when this worker took over the stitch of a segmented job because the lease of
+ * the worker stitching it expired.
+ */
+public record SegmentStitchRetryEvent(TranscodingJob job) {
+}
@@ -0,0 +1,503 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.dto.TranscodingJobDto;
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectArgs;
+import io.minio.StatObjectArgs;
+import io.minio.errors.ErrorResponseException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Keyframe-segmented transcoding for long inputs: the video is split into chunks at keyframes,
+ * the chunks are transcoded in parallel and stitched back together with the concat demuxer, along
+ * with the audio encoded once from the whole input.
+ * Chunks run either on a local fork-join pool or as SEGMENT sub-jobs on the jobs topic.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SegmentedTranscodingService {
+
+    private final TranscodingJobRepository jobRepository;
+    private final FFmpegService ffmpegService;
+    private final MinioClient minioClient;
+    private final JobEventPublisher jobEventPublisher;
+    private final ParallelObjectUploader objectUploader;
+    private final JobCancellationRegistry cancellations;
+    private final QosPolicy qosPolicy;
+    private final ProgressTracker progressTracker;
+    private final JobLeaseManager leases;
+    private final JobPipeline pipeline;
+    private final CoreBudgetManager coreBudget;
+
+    private static final String AUDIO_FILENAME = "audio.mka";
+    /** Encode budget held while splitting, encoding the audio or stitching: stream copies and an audio encode. */
+    private static final double REMUX_UNITS = 0.25;
+
+    @Value("${transcoding.segmented.enabled:true}")
+    private boolean segmentedEnabled;
+
+    @Value("${transcoding.segmented.mode:local}")
+    private String segmentedMode;
+
+    @Value("${transcoding.segmented.min-duration-seconds:1200}")
+    private long minDurationSeconds;
+
+    @Value("${transcoding.segmented.segment-duration-seconds:300}")
+    private int segmentDurationSeconds;
+
+    @Value("${transcoding.segmented.local-parallelism:4}")
+    private int localParallelism;
+
+    @Value("${transcoding.processing.temp-directory:/tmp/transcode}")
+    private String tempDirectory;
+
+    @Value("${storage.minio.bucket-name:video-files}")
+    private String inputBucketName;
+
+    @Value("${storage.minio.output-bucket-name:transcoded-files}")
+    private String outputBucketName;
+
+    private ForkJoinPool segmentPool;
+    private ExecutorService stitchExecutor;
+
+    @PostConstruct
+    public void init() {
+        segmentPool = new ForkJoinPool(localParallelism);
+        stitchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        log.info("SegmentedTranscodingService initialized: enabled={}, mode={}, minDuration={}s, segmentDuration={}s, "
+                + "localParallelism={}", segmentedEnabled, segmentedMode, minDurationSeconds, segmentDurationSeconds,
+                localParallelism);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        segmentPool.shutdownNow();
+        stitchExecutor.shutdownNow();
+    }
+
+    public boolean isEligible(TranscodingJob job, Double durationSeconds) {
+        // premium jobs are split from a shorter length, trading some efficiency for latency
+        Long qosMinDuration = qosPolicy.segmentMinDurationSeconds(job);
+        long minDurationSeconds = qosMinDuration != null
+                ? Math.min(qosMinDuration, this.minDurationSeconds) : this.minDurationSeconds;
+        return segmentedEnabled
+                && (job.getJobType() == null || job.getJobType() == TranscodingJob.JobType.STANDARD)
+                && !ffmpegService.isPackagedOutput(job.getOutputFormat())
+                && durationSeconds != null
+                && durationSeconds >= minDurationSeconds
+                && durationSeconds > 2L * segmentDurationSeconds;
+    }
+
+    public boolean isDistributed() {
+        return "distributed".equalsIgnoreCase(segmentedMode);
+    }
+
+    public int getLocalParallelism() {
+        return localParallelism;
+    }
+
+    /**
+     * Splits, transcodes the chunks on the local fork-join pool and stitches them into {@code outputFile}.
+     */
+    public boolean transcodeLocally(TranscodingJob job, File inputFile, File outputFile,
+                                    TranscodingJobDto.OutputSettingsDto settings) {
+        File workDirectory = new File(tempDirectory, "segments_" + job.getId());
+        try {
+            List<File> segments = ffmpegService.splitAtKeyframes(inputFile, new File(workDirectory, "in"),
+                    segmentDurationSeconds);
+            if (segments.isEmpty()) {
+                log.error("Splitting produced no segments for job {}", job.getId());
+                return false;
+            }
+            log.info("Job {} split into {} segments, transcoding with parallelism {}",
+                    job.getId(), segments.size(), localParallelism);
+
+            TranscodingJobDto.OutputSettingsDto segmentSettings = toSegmentSettings(settings);
+            File transcodedDirectory = new File(workDirectory, "out");
+            transcodedDirectory.mkdirs();
+
+            AtomicInteger completed = new AtomicInteger();
+            AtomicBoolean failed = new AtomicBoolean();
+            JobCancellationRegistry.Handle handle = cancellations.current();
+            // each process running side by side gets its own share of the job's cores
+            BlockingQueue<Integer> slices = new ArrayBlockingQueue<>(localParallelism);
+            for (int i = 0; i < localParallelism; i++) {
+                slices.add(i);
+            }
+            List<File> transcoded = new ArrayList<>();
+            List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+            File audio = ffmpegService.hasAudio(inputFile) ? new File(workDirectory, AUDIO_FILENAME) : null;
+            if (audio != null) {
+                tasks.add(segmentPool.submit(() -> {
+                    boolean ok = inSlice(handle, slices, () -> ffmpegService.encodeAudio(inputFile, audio, settings));
+                    if (!ok) {
+                        failed.set(true);
+                    }
+                    return ok;
+                }));
+            }
+            for (File segment : segments) {
+                File segmentOutput = new File(transcodedDirectory, segment.getName());
+                transcoded.add(segmentOutput);
+                tasks.add(segmentPool.submit(() -> {
+                    if (failed.get() || (handle != null && handle.isCancelled())) {
+                        return false;
+                    }
+                    boolean ok = inSlice(handle, slices,
+                            () -> ffmpegService.transcode(segment, segmentOutput, segmentSettings));
+                    if (ok) {
+                        int done = completed.incrementAndGet();
+                        progressTracker.set(job, ProgressTracker.ENCODE_FROM_PERCENT
+                                + (ProgressTracker.ENCODE_TO_PERCENT - ProgressTracker.ENCODE_FROM_PERCENT)
+                                * done / segments.size());
+                    } else {
+                        failed.set(true);
+                    }
+                    return ok;
+                }));
+            }
+
+            tasks.forEach(ForkJoinTask::join);
+            if (failed.get()) {
+                log.error("One or more segments failed for job {}", job.getId());
+                return false;
+            }
+
+            return ffmpegService.concat(transcoded, audio, outputFile, settings.getOutputFormat());
+        } finally {
+            deleteRecursively(workDirectory);
+        }
+    }
+
+    /**
+     * Runs one of a local job's side-by-side processes on a free slice of the job's cores.
+     */
+    private boolean inSlice(JobCancellationRegistry.Handle handle, BlockingQueue<Integer> slices,
+                            Supplier<Boolean> task) throws InterruptedException {
+        // the pool runs at most localParallelism tasks, so a slice is free by the time one starts
+        int slice = slices.take();
+        try (JobCancellationRegistry.Binding bound = cancellations.bind(handle);
+             CoreBudgetManager.Binding sliced = coreBudget.slice(slice, localParallelism)) {
+            return task.get();
+        } finally {
+            slices.add(slice);
+        }
+    }
+
+    /**
+     * Splits the input, uploads the chunks and queues one SEGMENT sub-job per chunk so that other
+     * workers can pick them up. The parent stays PROCESSING until {@link #onSegmentFinished} stitches it.
+     */
+    public boolean dispatchSegments(TranscodingJob job, File inputFile, TranscodingJobDto.OutputSettingsDto settings)
+            throws Exception {
+        File workDirectory = new File(tempDirectory, "segments_" + job.getId());
+        try {
+            List<File> segments = remux(job,
+                    () -> ffmpegService.splitAtKeyframes(inputFile, workDirectory, segmentDurationSeconds));
+            if (segments.isEmpty()) {
+                log.error("Splitting produced no segments for job {}", job.getId());
+                return false;
+            }
+
+            File audio = new File(workDirectory, AUDIO_FILENAME);
+            if (!remux(job, () -> !ffmpegService.hasAudio(inputFile)
+                    || ffmpegService.encodeAudio(inputFile, audio, settings))) {
+                log.error("Encoding the audio of job {} failed", job.getId());
+                return false;
+            }
+
+            pipeline.execute(JobPipeline.Stage.UPLOAD, () -> {
+                if (audio.exists()) {
+                    objectUploader.upload(inputBucketName, audioObjectKey(job.getId()), audio, "audio/x-matroska");
+                }
+                for (File segment : segments) {
+                    objectUploader.upload(inputBucketName, segmentObjectKey(job.getId(), segment), segment,
+                            "video/x-matroska");
+                }
+            });
+
+            List<TranscodingJob> children = new ArrayList<>();
+            for (int i = 0; i < segments.size(); i++) {
+                File segment = segments.get(i);
+                children.add(TranscodingJob.builder()
+                        .user(job.getUser())
+                        .inputFile(job.getInputFile())
+                        .inputObjectKey(segmentObjectKey(job.getId(), segment))
+                        .outputFilename(segment.getName())
+                        .videoCodec(job.getVideoCodec())
+                        .audioCodec(job.getAudioCodec())
+                        .outputFormat("mkv")
+                        .videoBitrate(job.getVideoBitrate())
+                        .audioBitrate(job.getAudioBitrate())
+                        .resolution(job.getResolution())
+                        .frameRate(job.getFrameRate())
+                        .processingMode(job.getProcessingMode())
+                        .priority(job.getPriority())
+                        .deadline(job.getDeadline())
+                        .qosClass(job.getQosClass())
+                        .jobType(TranscodingJob.JobType.SEGMENT)
+                        .parentJobId(job.getId())
+                        .segmentIndex(i)
+                        .segmentCount(segments.size())
+                        .status(TranscodingJob.TranscodingStatus.QUEUED)
+                        .progressPercentage(0)
+                        .build());
+            }
+
+            job.setJobType(TranscodingJob.JobType.SEGMENTED);
+            job.setSegmentCount(segments.size());
+            leases.save(job);
+
+            for (TranscodingJob child : jobRepository.saveAll(children)) {
+                jobEventPublisher.dispatch(child);
+            }
+            log.info("Job {} split into {} segment sub-jobs", job.getId(), segments.size());
+            return true;
+        } finally {
+            deleteRecursively(workDirectory);
+        }
+    }
+
+    /**
+     * Rolls a finished SEGMENT sub-job up into its parent, whichever component finished it.
+     */
+    @EventListener
+    public void onJobFinished(JobFinishedEvent event) {
+        if ("COMPLETED".equals(event.status()) || "FAILED".equals(event.status())) {
+            onSegmentFinished(event.job());
+        }
+    }
+
+    /**
+     * Rolls a finished SEGMENT sub-job up into its parent. The worker finishing the last segment stitches.
+     */
+    public void onSegmentFinished(TranscodingJob segment) {
+        String parentId = segment.getParentJobId();
+        if (parentId == null) {
+            return;
+        }
+
+        if (segment.getStatus() != TranscodingJob.TranscodingStatus.COMPLETED) {
+            int failed = jobRepository.failIfProcessing(parentId,
+                    "Segment " + segment.getSegmentIndex() + " failed: " + segment.getErrorMessage(), LocalDateTime.now());
+            if (failed > 0) {
+                jobRepository.cancelQueuedSegments(parentId);
+                jobRepository.findById(parentId).ifPresent(parent -> jobEventPublisher.publishStatus(parent, "FAILED"));
+                log.error("Segmented job {} failed because segment {} failed", parentId, segment.getSegmentIndex());
+            }
+            return;
+        }
+
+        int total = segment.getSegmentCount();
+        long done = jobRepository.countByParentJobIdAndStatus(parentId, TranscodingJob.TranscodingStatus.COMPLETED);
+        if (done < total) {
+            // the parent is not leased while its segments run, its token still fences out a re-claim
+            jobRepository.findById(parentId).ifPresent(parent -> jobRepository.advanceSegmentedProgress(parentId,
+                    parent.getLeaseToken(), (int) (15 + 74 * done / total)));
+            return;
+        }
+
+        if (!leases.claimStitch(parentId)) {
+            return;
+        }
+        // the stitch fetches, concatenates and uploads the whole output, off the finishing segment's thread
+        stitchExecutor.submit(() -> stitch(parentId));
+    }
+
+    /**
+     * Stitches a segmented job whose previous stitcher stopped renewing its lease.
+     */
+    @EventListener
+    public void onStitchRetry(SegmentStitchRetryEvent event) {
+        stitchExecutor.submit(() -> stitch(event.job().getId()));
+    }
+
+    private void stitch(String parentId) {
+        TranscodingJob parent = jobRepository.findById(parentId).orElse(null);
+        if (parent == null) {
+            return;
+        }
+
+        List<TranscodingJob> children = jobRepository.findByParentJobIdOrderBySegmentIndexAsc(parentId);
+        File workDirectory = new File(tempDirectory, "stitch_" + parentId);
+        workDirectory.mkdirs();
+        JobCancellationRegistry.Handle cancellation = cancellations.register(parent);
+        try {
+            leases.adopt(parent);
+            List<File> parts = new ArrayList<>();
+            File audio = pipeline.run(JobPipeline.Stage.FETCH, () -> {
+                for (TranscodingJob child : children) {
+                    File part = new File(workDirectory, child.getOutputFilename());
+                    try (InputStream stream = minioClient.getObject(GetObjectArgs.builder()
+                            .bucket(outputBucketName)
+                            .object(child.getOutputObjectKey())
+                            .build())) {
+                        Files.copy(stream, part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    parts.add(part);
+                }
+                return downloadAudio(parentId, new File(workDirectory, AUDIO_FILENAME));
+            });
+
+            File output = new File(workDirectory, parent.getOutputFilename());
+            if (!remux(parent, () -> ffmpegService.concat(parts, audio, output, parent.getOutputFormat()))) {
+                throw new IllegalStateException("Concatenating " + parts.size() + " segments failed");
+            }
+
+            String outputObjectKey = "transcoded/" + parent.getId() + "/" + parent.getOutputFilename();
+            String contentType = "video/" + parent.getOutputFormat();
+            pipeline.execute(JobPipeline.Stage.UPLOAD,
+                    () -> objectUploader.upload(outputBucketName, outputObjectKey, output, contentType));
+
+            parent.setOutputObjectKey(outputObjectKey);
+            parent.setOutputFilePath("/" + outputBucketName + "/" + outputObjectKey);
+            parent.setStatus(TranscodingJob.TranscodingStatus.COMPLETED);
+            parent.setProgressPercentage(100);
+            parent.setCompletedAt(LocalDateTime.now());
+            if (parent.getStartedAt() != null) {
+                parent.setActualDuration(Duration.between(parent.getStartedAt(), parent.getCompletedAt()).getSeconds());
+            }
+            pipeline.execute(JobPipeline.Stage.FINALIZE, () -> {
+                leases.save(parent);
+                jobEventPublisher.publishStatus(parent, "COMPLETED");
+            });
+            log.info("Segmented job {} stitched from {} segments", parentId, parts.size());
+
+            removeSegmentObjects(children);
+            removeObject(inputBucketName, audioObjectKey(parentId));
+        } catch (JobLeaseManager.LeaseLostException e) {
+            log.warn("Not completing segmented job {}: {}", parentId, e.getMessage());
+        } catch (Exception e) {
+            if (cancellation.isCancelled()) {
+                log.info("Stitch of job {} was stopped", parentId);
+                return;
+            }
+            log.error("Stitching segmented job {} failed: {}", parentId, e.getMessage(), e);
+            parent.setStatus(TranscodingJob.TranscodingStatus.FAILED);
+            parent.setErrorMessage("Stitching failed: " + e.getMessage());
+            parent.setCompletedAt(LocalDateTime.now());
+            try {
+                // a stitcher whose lease was taken over must not fail its successor's attempt
+                leases.save(parent);
+                jobEventPublisher.publishStatus(parent, "FAILED");
+            } catch (JobLeaseManager.LeaseLostException lost) {
+                log.warn("Not failing segmented job {}: {}", parentId, lost.getMessage());
+            }
+        } finally {
+            leases.release(parentId);
+            cancellations.unregister(cancellation);
+            deleteRecursively(workDirectory);
+        }
+    }
+
+    /**
+     * @return the audio encoded when the job was split, or {@code null} when the input had none
+     */
+    private File downloadAudio(String parentId, File audio) throws Exception {
+        String objectKey = audioObjectKey(parentId);
+        try {
+            minioClient.statObject(StatObjectArgs.builder().bucket(inputBucketName).object(objectKey).build());
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw e;
+        }
+        try (InputStream stream = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(inputBucketName)
+                .object(objectKey)
+                .build())) {
+            Files.copy(stream, audio.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return audio;
+    }
+
+    /**
+     * Runs a stream copy or audio encode of {@code job} in the encode stage, on a small share of the cores.
+     */
+    private <T> T remux(TranscodingJob job, JobPipeline.StageTask<T> task) throws Exception {
+        return pipeline.run(JobPipeline.Stage.ENCODE, REMUX_UNITS, qosPolicy.isPremium(job), () -> {
+            try (CoreBudgetManager.Allocation cores = coreBudget.allocate(job, REMUX_UNITS)) {
+                return task.call();
+            }
+        });
+    }
+
+    private static String segmentObjectKey(String parentId, File segment) {
+        return "segments/" + parentId + "/" + segment.getName();
+    }
+
+    private static String audioObjectKey(String parentId) {
+        return "segments/" + parentId + "/" + AUDIO_FILENAME;
+    }
+
+    private void removeSegmentObjects(List<TranscodingJob> children) {
+        for (TranscodingJob child : children) {
+            removeObject(inputBucketName, child.getInputObjectKey());
+            removeObject(outputBucketName, child.getOutputObjectKey());
+        }
+    }
+
+    private void removeObject(String bucket, String objectKey) {
+        if (objectKey == null) {
+            return;
+        }
+        try {
+            minioClient.removeObject(RemoveObjectArgs.builder().bucket(bucket).object(objectKey).build());
+        } catch (Exception e) {
+            log.warn("Failed to remove segment object {}/{}: {}", bucket, objectKey, e.getMessage());
+        }
+    }
+
+    private TranscodingJobDto.OutputSettingsDto toSegmentSettings(TranscodingJobDto.OutputSettingsDto settings) {
+        return TranscodingJobDto.OutputSettingsDto.builder()
+                .videoCodec(settings.getVideoCodec())
+                .outputFormat("mkv")
+                .videoBitrate(settings.getVideoBitrate())
+                .resolution(settings.getResolution())
+                .frameRate(settings.getFrameRate())
+                .processingMode(settings.getProcessingMode())
+                .preset(settings.getPreset())
+                .build();
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            log.warn("Failed to cleanup temp file: {}", file.getAbsolutePath());
+        }
+    }
+}
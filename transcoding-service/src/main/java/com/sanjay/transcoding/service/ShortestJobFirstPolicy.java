@@ -0,0 +1,39 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Jobs with the shortest expected encode run first, which minimizes the mean time to completion. The
+ * expected encode time, the probed input duration times the job's cost, is added to the acceptance
+ * time, so a long job is only overtaken by shorter ones that arrive within the difference.
+ */
+@Component
+@ConditionalOnProperty(name = "transcoding.scheduling.policy", havingValue = "sjf")
+@RequiredArgsConstructor
+public class ShortestJobFirstPolicy implements SchedulingPolicy {
+
+    private final JobCostEstimator costEstimator;
+
+    /** Assumed input duration of jobs that could not be probed. */
+    @Value("${transcoding.scheduling.unknown-duration-seconds:600}")
+    private double unknownDurationSeconds;
+
+    @Override
+    public long key(TranscodingJob job, long acceptedAtMillis, Double inputDurationSeconds) {
+        Long expectedSeconds = job.getEstimatedDuration();
+        if (expectedSeconds == null) {
+            expectedSeconds = costEstimator.estimateSeconds(job,
+                    inputDurationSeconds != null ? inputDurationSeconds : unknownDurationSeconds);
+        }
+        return acceptedAtMillis + expectedSeconds * 1000;
+    }
+
+    @Override
+    public boolean usesInputDuration() {
+        return true;
+    }
+}
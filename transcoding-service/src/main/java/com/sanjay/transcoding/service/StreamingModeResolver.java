@@ -0,0 +1,114 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.dto.TranscodingJobDto;
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Decides whether a job can run as a zero-temp-file streaming transcode
+ * (MinIO -> ffmpeg stdin -> ffmpeg stdout -> multipart upload).
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StreamingModeResolver {
+
+    private final MinioClient minioClient;
+    private final FFmpegService ffmpegService;
+
+    @Value("${transcoding.streaming.enabled:true}")
+    private boolean streamingEnabled;
+
+    private static final Set<String> SEQUENTIAL_CONTAINERS = Set.of(
+            ".mkv", ".webm", ".ts", ".m2ts", ".mts", ".flv", ".mpg", ".mpeg"
+    );
+
+    private static final Set<String> ISO_BMFF_CONTAINERS = Set.of(
+            ".mp4", ".m4v", ".mov", ".3gp"
+    );
+
+    private static final int MAX_TOP_LEVEL_BOXES = 16;
+
+    public boolean canStream(String bucket, String objectKey, TranscodingJobDto.OutputSettingsDto settings) {
+        if (!streamingEnabled || !ffmpegService.isStreamingCandidate(settings)) {
+            return false;
+        }
+
+        String extension = extensionOf(objectKey);
+        if (SEQUENTIAL_CONTAINERS.contains(extension)) {
+            return true;
+        }
+        if (ISO_BMFF_CONTAINERS.contains(extension)) {
+            return hasMoovBeforeMdat(bucket, objectKey);
+        }
+        return false;
+    }
+
+    /**
+     * MP4/MOV inputs can only be demuxed from a pipe when the moov atom precedes the media data.
+     * Walks the top-level box headers with small ranged reads instead of downloading the file.
+     */
+    private boolean hasMoovBeforeMdat(String bucket, String objectKey) {
+        long offset = 0;
+        try {
+            for (int i = 0; i < MAX_TOP_LEVEL_BOXES; i++) {
+                ByteBuffer header = ByteBuffer.wrap(readRange(bucket, objectKey, offset, 16));
+                if (header.remaining() < 8) {
+                    return false;
+                }
+                long size = Integer.toUnsignedLong(header.getInt());
+                byte[] typeBytes = new byte[4];
+                header.get(typeBytes);
+                String type = new String(typeBytes, StandardCharsets.US_ASCII);
+
+                if ("moov".equals(type)) {
+                    return true;
+                }
+                if ("mdat".equals(type)) {
+                    log.info("Input {} has moov after mdat, seekable input required", objectKey);
+                    return false;
+                }
+                if (size == 1) {
+                    if (header.remaining() < 8) {
+                        return false;
+                    }
+                    size = header.getLong();
+                }
+                if (size < 8) {
+                    return false;
+                }
+                offset += size;
+            }
+        } catch (Exception e) {
+            log.warn("Could not inspect container layout of {}: {}", objectKey, e.getMessage());
+        }
+        return false;
+    }
+
+    private byte[] readRange(String bucket, String objectKey, long offset, long length) throws Exception {
+        try (InputStream stream = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucket)
+                .object(objectKey)
+                .offset(offset)
+                .length(length)
+                .build())) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private String extensionOf(String objectKey) {
+        if (objectKey != null && objectKey.contains(".")) {
+            return objectKey.substring(objectKey.lastIndexOf(".")).toLowerCase();
+        }
+        return "";
+    }
+}
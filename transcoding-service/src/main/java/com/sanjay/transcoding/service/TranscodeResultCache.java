@@ -0,0 +1,226 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.dto.TranscodingJobDto;
+import io.minio.MinioClient;
+import io.minio.StatObjectArgs;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed cache of transcode results, keyed on the input object's ETag plus the
+ * normalized output settings, with single-flight deduplication of identical jobs in Redis.
+ * Any Redis failure degrades to "no cache" so jobs keep running.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TranscodeResultCache {
+
+    private static final String RESULT_PREFIX = "transcode:result:";
+    private static final String INFLIGHT_PREFIX = "transcode:inflight:";
+    private static final String WAITERS_PREFIX = "transcode:waiters:";
+    private static final String LEADING_PREFIX = "transcode:leading:";
+    private static final String RESULT_INDEX = "transcode:results";
+
+    private final StringRedisTemplate redisTemplate;
+    private final MinioClient minioClient;
+
+    @Value("${transcoding.cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${transcoding.cache.ttl-hours:168}")
+    private long ttlHours;
+
+    @Value("${transcoding.cache.max-entries:10000}")
+    private long maxEntries;
+
+    @Value("${transcoding.cache.inflight-ttl-minutes:360}")
+    private long inflightTtlMinutes;
+
+    @Value("${storage.minio.output-bucket-name:transcoded-files}")
+    private String outputBucketName;
+
+    /**
+     * @return the cache key, or null when the cache is disabled or the input cannot be identified
+     */
+    public String keyFor(String inputBucket, String inputObjectKey, TranscodingJobDto.OutputSettingsDto settings) {
+        if (!cacheEnabled) {
+            return null;
+        }
+        try {
+            String etag = minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(inputBucket)
+                    .object(inputObjectKey)
+                    .build()).etag();
+            String fingerprint = String.join("|",
+                    etag,
+                    normalize(settings.getVideoCodec()),
+                    normalize(settings.getAudioCodec()),
+                    normalize(settings.getOutputFormat()),
+                    normalize(settings.getVideoBitrate()),
+                    normalize(settings.getAudioBitrate()),
+                    normalize(settings.getResolution()),
+                    settings.getFrameRate() != null ? settings.getFrameRate().toString() : "",
+                    normalize(settings.getProcessingMode()),
+                    normalize(settings.getPreset()));
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(fingerprint.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (Exception e) {
+            log.warn("Could not compute cache key for {}/{}: {}", inputBucket, inputObjectKey, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the object key of a previous result for {@code key}, if it still exists in the output bucket
+     */
+    public String lookup(String key) {
+        try {
+            Object objectKey = redisTemplate.opsForHash().get(RESULT_PREFIX + key, "objectKey");
+            if (objectKey == null) {
+                return null;
+            }
+            try {
+                minioClient.statObject(StatObjectArgs.builder()
+                        .bucket(outputBucketName)
+                        .object(objectKey.toString())
+                        .build());
+            } catch (Exception e) {
+                log.info("Cached result {} no longer exists, evicting", objectKey);
+                evict(key);
+                return null;
+            }
+            redisTemplate.opsForZSet().add(RESULT_INDEX, key, System.currentTimeMillis());
+            return objectKey.toString();
+        } catch (Exception e) {
+            log.warn("Result cache lookup failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public void store(String key, String outputObjectKey) {
+        try {
+            redisTemplate.opsForHash().putAll(RESULT_PREFIX + key, Map.of(
+                    "objectKey", outputObjectKey,
+                    "createdAt", String.valueOf(System.currentTimeMillis())));
+            redisTemplate.expire(RESULT_PREFIX + key, Duration.ofHours(ttlHours));
+            redisTemplate.opsForZSet().add(RESULT_INDEX, key, System.currentTimeMillis());
+            trim();
+        } catch (Exception e) {
+            log.warn("Could not store cache entry for {}: {}", outputObjectKey, e.getMessage());
+        }
+    }
+
+    /**
+     * Tries to become the single job that actually transcodes {@code key}. A job that already leads
+     * {@code key}, e.g. one requeued after its worker died, leads it again. Returns true when Redis is
+     * unavailable so that jobs never block on the cache.
+     */
+    public boolean tryLead(String key, String jobId) {
+        try {
+            Duration ttl = Duration.ofMinutes(inflightTtlMinutes);
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(INFLIGHT_PREFIX + key, jobId, ttl);
+            if (Boolean.FALSE.equals(acquired)) {
+                if (!jobId.equals(redisTemplate.opsForValue().get(INFLIGHT_PREFIX + key))) {
+                    return false;
+                }
+                redisTemplate.expire(INFLIGHT_PREFIX + key, ttl);
+            }
+            // lets the lead be released by job id, without computing the key again
+            redisTemplate.opsForValue().set(LEADING_PREFIX + jobId, key, ttl);
+            return true;
+        } catch (Exception e) {
+            log.warn("Single-flight lock unavailable, running job {} without deduplication: {}", jobId, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Registers {@code jobId} to be completed by the running leader.
+     *
+     * @return false when the leader finished in the meantime and the caller must handle the job itself
+     */
+    public boolean awaitLeader(String key, String jobId) {
+        try {
+            redisTemplate.opsForList().rightPush(WAITERS_PREFIX + key, jobId);
+            redisTemplate.expire(WAITERS_PREFIX + key, Duration.ofMinutes(inflightTtlMinutes));
+            if (Boolean.TRUE.equals(redisTemplate.hasKey(INFLIGHT_PREFIX + key))) {
+                return true;
+            }
+            // the leader released before we registered; if it has not drained us, we are on our own
+            Long removed = redisTemplate.opsForList().remove(WAITERS_PREFIX + key, 1, jobId);
+            return removed == null || removed == 0;
+        } catch (Exception e) {
+            log.warn("Could not register job {} behind running leader: {}", jobId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Releases the single-flight lock held by {@code jobId} and returns the jobs that were waiting on it.
+     */
+    public List<String> releaseLead(String key, String jobId) {
+        List<String> waiters = new ArrayList<>();
+        try {
+            redisTemplate.delete(LEADING_PREFIX + jobId);
+            if (!jobId.equals(redisTemplate.opsForValue().get(INFLIGHT_PREFIX + key))) {
+                return waiters;
+            }
+            redisTemplate.delete(INFLIGHT_PREFIX + key);
+            String waiter;
+            while ((waiter = redisTemplate.opsForList().leftPop(WAITERS_PREFIX + key)) != null) {
+                waiters.add(waiter);
+            }
+        } catch (Exception e) {
+            log.warn("Could not release single-flight lock: {}", e.getMessage());
+        }
+        return waiters;
+    }
+
+    /**
+     * Releases whatever single-flight lock {@code jobId} holds and returns the jobs that were waiting on it.
+     */
+    public List<String> releaseLeadOf(String jobId) {
+        try {
+            String key = redisTemplate.opsForValue().get(LEADING_PREFIX + jobId);
+            return key != null ? releaseLead(key, jobId) : new ArrayList<>();
+        } catch (Exception e) {
+            log.warn("Could not look up the single-flight lock of job {}: {}", jobId, e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private void trim() {
+        Long size = redisTemplate.opsForZSet().size(RESULT_INDEX);
+        if (size == null || size <= maxEntries) {
+            return;
+        }
+        Set<String> oldest = redisTemplate.opsForZSet().range(RESULT_INDEX, 0, size - maxEntries - 1);
+        if (oldest != null) {
+            oldest.forEach(this::evict);
+            log.info("Evicted {} result cache entries (max-entries={})", oldest.size(), maxEntries);
+        }
+    }
+
+    private void evict(String key) {
+        redisTemplate.delete(RESULT_PREFIX + key);
+        redisTemplate.opsForZSet().remove(RESULT_INDEX, key);
+    }
+
+    private String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -2,38 +2,50 @@ package com.sanjay.transcoding.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sanjay.common.dto.TranscodingJobDto;
+import com.sanjay.common.entity.RenditionOutput;
 import com.sanjay.common.entity.TranscodingJob;
 import com.sanjay.common.entity.User;
 import com.sanjay.common.entity.VideoFile;
 import com.sanjay.transcoding.dto.SystemInfo;
+import com.sanjay.transcoding.dto.WorkerInfo;
 import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
 import io.minio.GetObjectArgs;
+import io.minio.GetPresignedObjectUrlArgs;
 import io.minio.MinioClient;
 import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import io.minio.http.Method;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -42,9 +54,30 @@ public class TranscodingService {
 
     private final TranscodingJobRepository jobRepository;
     private final FFmpegService ffmpegService;
-    private final KafkaTemplate<String, String> kafkaTemplate;
     private final MinioClient minioClient;
     private final ObjectMapper objectMapper;
+    private final StreamingModeResolver streamingModeResolver;
+    private final SegmentedTranscodingService segmentedTranscodingService;
+    private final JobEventPublisher jobEventPublisher;
+    private final HlsSegmentUploader hlsSegmentUploader;
+    private final TranscodeResultCache resultCache;
+    private final InputFileCache inputFileCache;
+    private final ParallelObjectUploader objectUploader;
+    private final JobPipeline pipeline;
+    private final InputPrefetcher inputPrefetcher;
+    private final JobAdmissionQueue admissionQueue;
+    private final JobCostEstimator costEstimator;
+    private final ConsumerBackPressure consumerBackPressure;
+    private final JobLeaseManager leases;
+    private final JobCancellationRegistry cancellations;
+    private final ProgressTracker progressTracker;
+    private final CoreBudgetManager coreBudget;
+    private final FairShareDispatcher fairShareDispatcher;
+    private final WorkerRegistry workerRegistry;
+    private final QosPolicy qosPolicy;
+
+    private static final String PLAYLIST_FILENAME = "index.m3u8";
+    private static final int PROBE_CACHE_ENTRIES = 1024;
 
     @Value("${transcoding.processing.max-concurrent-jobs:4}")
     private int maxConcurrentJobs;
@@ -58,6 +91,15 @@ public class TranscodingService {
     @Value("${transcoding.processing.cleanup-temp-files:true}")
     private boolean cleanupTempFiles;
 
+    @Value("${transcoding.streaming.part-size:16777216}")
+    private long streamingPartSize;
+
+    @Value("${transcoding.upload.pipelined-fragmented-mp4:false}")
+    private boolean pipelineFragmentedMp4;
+
+    @Value("${transcoding.cache.copy-on-hit:true}")
+    private boolean copyCachedResults;
+
     @Value("${storage.minio.bucket-name:video-files}")
     private String inputBucketName;
 
@@ -67,13 +109,20 @@ public class TranscodingService {
     @Value("${WORKER_ID:default-worker}")
     private String workerId;
 
-    private Semaphore concurrencyLimiter;
     private ExecutorService executorService;
 
+    /** Probed input durations by object key; uploads are never overwritten, so entries cannot go stale. */
+    private final Map<String, Double> probedDurations = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+                    return size() > PROBE_CACHE_ENTRIES;
+                }
+            });
+
     @PostConstruct
     public void init() {
-        concurrencyLimiter = new Semaphore(maxConcurrentJobs);
-        executorService = Executors.newFixedThreadPool(maxConcurrentJobs);
+        executorService = Executors.newVirtualThreadPerTaskExecutor();
 
         new File(tempDirectory).mkdirs();
         new File(outputDirectory).mkdirs();
@@ -85,6 +134,10 @@ public class TranscodingService {
     public TranscodingJob createTranscodingJob(User user, TranscodingJobDto jobDto) {
         log.info("Creating transcoding job for user: {} and file: {}", user.getUsername(), jobDto.getInputFileId());
 
+        if (jobDto.getRenditions() != null && !jobDto.getRenditions().isEmpty()) {
+            return createLadderJob(user, jobDto);
+        }
+
         TranscodingJob job = TranscodingJob.builder()
                 .user(user)
                 .inputFile(VideoFile.builder().id(jobDto.getInputFileId()).build())
@@ -98,20 +151,90 @@ public class TranscodingService {
                 .frameRate(jobDto.getOutputSettings().getFrameRate())
                 .processingMode(jobDto.getOutputSettings().getProcessingMode())
                 .priority(jobDto.getPriority())
+                .deadline(jobDto.getDeadline())
+                .status(TranscodingJob.TranscodingStatus.QUEUED)
+                .progressPercentage(0)
+                .build();
+        qosPolicy.apply(job, user);
+
+        TranscodingJob savedJob = jobRepository.save(job);
+        fairShareDispatcher.submit(savedJob);
+        return savedJob;
+    }
+
+    private TranscodingJob createLadderJob(User user, TranscodingJobDto jobDto) {
+        TranscodingJobDto.OutputSettingsDto settings = jobDto.getOutputSettings();
+        if (ffmpegService.isPackagedOutput(settings.getOutputFormat())) {
+            throw new RuntimeException("ABR ladders do not support packaged output format: " + settings.getOutputFormat());
+        }
+        String baseName = UUID.randomUUID().toString();
+
+        List<RenditionOutput> renditions = jobDto.getRenditions().stream()
+                .map(rendition -> RenditionOutput.builder()
+                        .resolution(rendition.getResolution())
+                        .videoBitrate(rendition.getVideoBitrate() != null ? rendition.getVideoBitrate() : settings.getVideoBitrate())
+                        .audioBitrate(rendition.getAudioBitrate() != null ? rendition.getAudioBitrate() : settings.getAudioBitrate())
+                        .outputFilename(baseName + "_" + rendition.getResolution() + "." + settings.getOutputFormat())
+                        .status(TranscodingJob.TranscodingStatus.QUEUED)
+                        .build())
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        TranscodingJob job = TranscodingJob.builder()
+                .user(user)
+                .inputFile(VideoFile.builder().id(jobDto.getInputFileId()).build())
+                .outputFilename(renditions.get(0).getOutputFilename())
+                .videoCodec(settings.getVideoCodec())
+                .audioCodec(settings.getAudioCodec())
+                .outputFormat(settings.getOutputFormat())
+                .videoBitrate(renditions.get(0).getVideoBitrate())
+                .audioBitrate(renditions.get(0).getAudioBitrate())
+                .resolution(renditions.get(0).getResolution())
+                .frameRate(settings.getFrameRate())
+                .processingMode(settings.getProcessingMode())
+                .priority(jobDto.getPriority())
+                .deadline(jobDto.getDeadline())
+                .jobType(TranscodingJob.JobType.LADDER)
+                .renditions(renditions)
                 .status(TranscodingJob.TranscodingStatus.QUEUED)
                 .progressPercentage(0)
                 .build();
+        qosPolicy.apply(job, user);
 
         TranscodingJob savedJob = jobRepository.save(job);
-        sendToKafka(savedJob);
+        fairShareDispatcher.submit(savedJob);
+        log.info("Created ladder job {} with {} renditions", savedJob.getId(), renditions.size());
         return savedJob;
     }
 
-    @KafkaListener(topics = "transcoding-jobs", groupId = "transcode-service-group")
-    public void onTranscodingJobReceived(String message) {
+    /**
+     * Records are acknowledged only once their job, and every job before it on the partition, has finished
+     * on this worker, so a crash hands unfinished jobs back to the group. Messages that are not run here
+     * count as finished right away.
+     */
+    @KafkaListener(id = ConsumerBackPressure.JOBS_LISTENER_ID, topics = JobEventPublisher.JOBS_TOPIC,
+            groupId = "transcode-service-group", containerFactory = "manualAckContainerFactory",
+            properties = "max.poll.records=${transcoding.queue.max-poll-records:2}")
+    public void onTranscodingJobReceived(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) {
+        acceptJob(record, acknowledgment);
+    }
+
+    /**
+     * Jobs the worker registry routed to this worker in particular.
+     */
+    @KafkaListener(id = ConsumerBackPressure.DIRECT_JOBS_LISTENER_ID,
+            topics = JobEventPublisher.DIRECT_JOBS_TOPIC_PREFIX + "${WORKER_ID:default-worker}",
+            groupId = "transcode-worker-${WORKER_ID:default-worker}", containerFactory = "manualAckContainerFactory",
+            properties = "max.poll.records=${transcoding.queue.max-poll-records:2}")
+    public void onDirectJobReceived(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) {
+        acceptJob(record, acknowledgment);
+    }
+
+    private void acceptJob(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) {
+        consumerBackPressure.received(record, acknowledgment);
+        boolean handedOff = false;
         try {
             @SuppressWarnings("unchecked")
-            Map<String, Object> payload = objectMapper.readValue(message, Map.class);
+            Map<String, Object> payload = objectMapper.readValue(record.value(), Map.class);
             String jobId = (String) payload.get("id");
 
             if (jobId == null) {
@@ -130,125 +253,562 @@ public class TranscodingService {
                 return;
             }
 
+            if (Boolean.TRUE.equals(payload.get("affinity")) && consumerBackPressure.saturated()
+                    && !inputFileCache.isCached(inputBucketName, resolveObjectKey(job))) {
+                // its input is not warm here either, any idle worker is better
+                log.info("Worker saturated, spilling job {} routed here by its input", jobId);
+                jobEventPublisher.spill(job);
+                consumerBackPressure.spilled();
+                return;
+            }
+
+            // leaves the job to this worker instead of the stale-dispatch sweep while it waits here
+            if (jobRepository.markAccepted(jobId, workerId, LocalDateTime.now()) == 0) {
+                log.info("Job {} is no longer queued, skipping", jobId);
+                return;
+            }
             log.info("Received transcoding job from Kafka: {}", jobId);
-            executorService.submit(() -> processTranscodingJob(job));
+            long acceptedAt = System.currentTimeMillis();
+            consumerBackPressure.accepted();
+            executorService.submit(() -> {
+                try {
+                    processTranscodingJob(job, acceptedAt);
+                } finally {
+                    consumerBackPressure.completed(record);
+                    consumerBackPressure.finished();
+                }
+            });
+            handedOff = true;
 
         } catch (Exception e) {
             log.error("Error processing Kafka message: {}", e.getMessage(), e);
+        } finally {
+            if (!handedOff) {
+                consumerBackPressure.completed(record);
+            }
         }
     }
 
-    public void processTranscodingJob(TranscodingJob job) {
-        File inputFile = null;
-        File outputFile = null;
+    public void processTranscodingJob(TranscodingJob job, long acceptedAtMillis) {
+        if (completeFromCacheOrAwaitLeader(job)) {
+            return;
+        }
+
+        String objectKey = resolveObjectKey(job);
+        Double probedDuration = admissionQueue.usesInputDuration() ? probeBeforeAdmission(job, objectKey) : null;
+        long admissionKey = admissionQueue.admissionKey(job, acceptedAtMillis, probedDuration);
+        inputPrefetcher.accepted(job.getId(), objectKey, admissionKey);
 
+        InputFileCache.Lease prefetched = null;
+        boolean admitted = false;
+        boolean claimed = false;
+        JobCancellationRegistry.Handle cancellation = cancellations.register(job);
         try {
-            concurrencyLimiter.acquire();
+            admissionQueue.acquire(job, admissionKey);
+            admitted = true;
+            prefetched = inputPrefetcher.claim(job.getId());
+            if (!leases.claim(job)) {
+                return;
+            }
+            claimed = true;
             log.info("Processing transcoding job: {}", job.getId());
 
-            job.setStatus(TranscodingJob.TranscodingStatus.PROCESSING);
-            job.setStartedAt(LocalDateTime.now());
-            job.setProgressPercentage(5);
-            jobRepository.save(job);
+            String outputObjectKey = "transcoded/" + job.getId() + "/" + job.getOutputFilename();
+            TranscodingJobDto.OutputSettingsDto settings = toOutputSettings(job);
+
+            Double durationSeconds = admissionQueue.usesInputDuration()
+                    ? probedDuration
+                    : pipeline.run(JobPipeline.Stage.PROBE, () -> probeInputDuration(job, objectKey));
+            job.setEstimatedDuration(costEstimator.estimateSeconds(job, durationSeconds));
+            if (!segmentedTranscodingService.isEligible(job, durationSeconds)) {
+                // segmented jobs report per finished segment instead
+                progressTracker.begin(job, durationSeconds);
+            }
+
+            boolean success;
+            if (job.getJobType() == TranscodingJob.JobType.LADDER) {
+                success = transcodeLadder(job, objectKey, settings);
+                outputObjectKey = job.getRenditions().get(0).getOutputObjectKey();
+            } else if (ffmpegService.isPackagedOutput(settings.getOutputFormat())) {
+                String objectPrefix = "transcoded/" + job.getId() + "/";
+                success = transcodePackaged(job, objectKey, objectPrefix, settings);
+                outputObjectKey = objectPrefix + PLAYLIST_FILENAME;
+            } else if (segmentedTranscodingService.isEligible(job, durationSeconds)) {
+                log.info("Job {} uses segmented mode ({}s input)", job.getId(), durationSeconds.longValue());
+                if (segmentedTranscodingService.isDistributed()) {
+                    if (dispatchSegments(job, objectKey, settings)) {
+                        return;
+                    }
+                    success = false;
+                } else {
+                    success = transcodeOnDisk(job, objectKey, outputObjectKey, settings, true);
+                }
+            } else if (!inputFileCache.isCached(inputBucketName, objectKey)
+                    && streamingModeResolver.canStream(inputBucketName, objectKey, settings)) {
+                // download, encode and upload are one pipe here, so the whole transfer holds the encode slot
+                String streamedObjectKey = outputObjectKey;
+                success = encode(job, () -> transcodeStreaming(job, objectKey, streamedObjectKey, settings));
+            } else {
+                success = transcodeOnDisk(job, objectKey, outputObjectKey, settings, false);
+            }
+
+            if (cancellation.isCancelled()) {
+                log.info("Job {} was cancelled while running", job.getId());
+                return;
+            }
+            boolean succeeded = success;
+            String completedObjectKey = outputObjectKey;
+            pipeline.execute(JobPipeline.Stage.FINALIZE, () -> finishJob(job, succeeded, completedObjectKey));
+
+        } catch (JobLeaseManager.LeaseLostException e) {
+            log.warn("Abandoning job {}: {}", job.getId(), e.getMessage());
+        } catch (Exception e) {
+            if (cancellation.isCancelled()) {
+                log.info("Job {} was cancelled while running", job.getId());
+                return;
+            }
+            log.error("Error processing job {}: {}", job.getId(), e.getMessage(), e);
+            if (!claimed) {
+                // no longer held here, the stale-dispatch sweep sends it again
+                jobRepository.unassignWorker(job.getId(), workerId);
+                return;
+            }
+            job.setStatus(TranscodingJob.TranscodingStatus.FAILED);
+            job.setErrorMessage(e.getMessage());
+            job.setCompletedAt(LocalDateTime.now());
+            try {
+                leases.save(job);
+            } catch (JobLeaseManager.LeaseLostException lost) {
+                log.warn("Not failing job {}: {}", job.getId(), lost.getMessage());
+                return;
+            }
+            jobEventPublisher.publishStatus(job, "FAILED");
+        } finally {
+            if (claimed) {
+                progressTracker.end(job.getId());
+                leases.release(job.getId());
+            }
+            cancellations.unregister(cancellation);
+            closeQuietly(prefetched);
+            if (admitted) {
+                admissionQueue.release();
+            } else {
+                // never got to claim its prefetch, which would otherwise keep its lease and budget
+                inputPrefetcher.discard(job.getId());
+            }
+        }
+    }
+
+    private void closeQuietly(InputFileCache.Lease lease) {
+        if (lease != null) {
+            lease.close();
+        }
+    }
+
+    private void finishJob(TranscodingJob job, boolean success, String outputObjectKey) {
+        if (success) {
+            job.setOutputObjectKey(outputObjectKey);
+            job.setOutputFilePath("/" + outputBucketName + "/" + outputObjectKey);
+            job.setStatus(TranscodingJob.TranscodingStatus.COMPLETED);
+            job.setProgressPercentage(100);
+            job.setEtaSeconds(0L);
+            job.setCompletedAt(LocalDateTime.now());
+
+            Duration duration = Duration.between(job.getStartedAt(), job.getCompletedAt());
+            job.setActualDuration(duration.getSeconds());
+
+            log.info("Job completed successfully: {} (duration: {}s)", job.getId(), duration.getSeconds());
+        } else {
+            job.setStatus(TranscodingJob.TranscodingStatus.FAILED);
+            job.setErrorMessage("Transcoding failed: output file not created or empty");
+            log.error("Job failed: {}", job.getId());
+        }
+
+        // only the lease holder announces the outcome
+        leases.save(job);
+        jobEventPublisher.publishStatus(job, success ? "COMPLETED" : "FAILED");
+    }
+
+    private boolean transcodeLadder(TranscodingJob job, String objectKey,
+                                    TranscodingJobDto.OutputSettingsDto settings) throws Exception {
+        List<RenditionOutput> renditions = job.getRenditions();
+        List<File> outputFiles = renditions.stream()
+                .map(rendition -> new File(outputDirectory, rendition.getOutputFilename()))
+                .toList();
+
+        try (InputFileCache.Lease input = fetchInput(objectKey)) {
+            File inputFile = input.file();
+            renditions.forEach(rendition -> rendition.setStatus(TranscodingJob.TranscodingStatus.PROCESSING));
+            job.setProgressPercentage(15);
+            leases.save(job);
+
+            List<TranscodingJobDto.RenditionDto> targets = renditions.stream()
+                    .map(rendition -> TranscodingJobDto.RenditionDto.builder()
+                            .resolution(rendition.getResolution())
+                            .videoBitrate(rendition.getVideoBitrate())
+                            .audioBitrate(rendition.getAudioBitrate())
+                            .build())
+                    .toList();
+
+            if (!encode(job, () -> ffmpegService.transcodeLadder(inputFile, settings, targets, outputFiles))) {
+                renditions.forEach(rendition -> rendition.setStatus(TranscodingJob.TranscodingStatus.FAILED));
+                return false;
+            }
 
-            String objectKey = resolveObjectKey(job);
-            String inputExtension = getExtension(objectKey);
-            inputFile = new File(tempDirectory, "input_" + job.getId() + inputExtension);
-            outputFile = new File(outputDirectory, job.getOutputFilename());
-            outputFile.getParentFile().mkdirs();
+            progressTracker.set(job, ProgressTracker.ENCODE_TO_PERCENT);
+
+            pipeline.execute(JobPipeline.Stage.UPLOAD, () -> {
+                for (int i = 0; i < renditions.size(); i++) {
+                    RenditionOutput rendition = renditions.get(i);
+                    File outputFile = outputFiles.get(i);
+                    String renditionObjectKey = "transcoded/" + job.getId() + "/" + rendition.getOutputFilename();
+                    objectUploader.upload(outputBucketName, renditionObjectKey, outputFile, "video/" + job.getOutputFormat());
+                    rendition.setOutputObjectKey(renditionObjectKey);
+                    rendition.setOutputFilePath("/" + outputBucketName + "/" + renditionObjectKey);
+                    rendition.setStatus(TranscodingJob.TranscodingStatus.COMPLETED);
+                }
+            });
+            return true;
+        } finally {
+            if (cleanupTempFiles) {
+                outputFiles.forEach(this::cleanupFile);
+            }
+        }
+    }
 
-            log.info("Downloading input file from MinIO: bucket={}, key={}", inputBucketName, objectKey);
-            try (InputStream stream = minioClient.getObject(GetObjectArgs.builder()
+    /**
+     * HLS/CMAF output: segments and the playlist are uploaded while ffmpeg is still encoding,
+     * so playback can start long before the job completes.
+     */
+    private boolean transcodePackaged(TranscodingJob job, String objectKey, String objectPrefix,
+                                      TranscodingJobDto.OutputSettingsDto settings) throws Exception {
+        File packageDirectory = new File(outputDirectory, "package_" + job.getId());
+        packageDirectory.mkdirs();
+        File playlistFile = new File(packageDirectory, PLAYLIST_FILENAME);
+
+        try (InputFileCache.Lease input = fetchInput(objectKey)) {
+            File inputFile = input.file();
+            progressTracker.set(job, ProgressTracker.ENCODE_FROM_PERCENT);
+
+            HlsSegmentUploader.Session upload = encode(job, () -> {
+                HlsSegmentUploader.Session session = hlsSegmentUploader.begin(playlistFile, objectPrefix);
+                boolean success;
+                try {
+                    success = ffmpegService.transcode(inputFile, playlistFile, settings);
+                } catch (RuntimeException e) {
+                    session.abort();
+                    throw e;
+                }
+                if (!success) {
+                    session.abort();
+                    return null;
+                }
+                return session;
+            });
+            if (upload == null) {
+                return false;
+            }
+            pipeline.execute(JobPipeline.Stage.UPLOAD, upload::finish);
+            return true;
+        } finally {
+            if (cleanupTempFiles) {
+                File[] packaged = packageDirectory.listFiles();
+                if (packaged != null) {
+                    for (File file : packaged) {
+                        cleanupFile(file);
+                    }
+                }
+                cleanupFile(packageDirectory);
+            }
+        }
+    }
+
+    /**
+     * @return true when the job was completed from a cached result or parked behind an identical running job
+     */
+    private boolean completeFromCacheOrAwaitLeader(TranscodingJob job) {
+        String cacheKey = resultCacheKey(job);
+        if (cacheKey == null) {
+            return false;
+        }
+
+        String cachedObjectKey = resultCache.lookup(cacheKey);
+        if (cachedObjectKey == null && !resultCache.tryLead(cacheKey, job.getId())) {
+            if (resultCache.awaitLeader(cacheKey, job.getId())) {
+                log.info("Job {} waits on an identical job that is already running", job.getId());
+                return true;
+            }
+            cachedObjectKey = resultCache.lookup(cacheKey);
+        }
+        if (cachedObjectKey == null) {
+            return false;
+        }
+
+        if (!leases.claim(job)) {
+            return true;
+        }
+        try {
+            completeFromCachedResult(job, cachedObjectKey);
+            return true;
+        } catch (Exception e) {
+            log.warn("Could not reuse cached result {} for job {}, transcoding instead: {}",
+                    cachedObjectKey, job.getId(), e.getMessage());
+            // hand the job back to the run queue, where it is claimed again on admission
+            leases.unclaim(job);
+            return false;
+        }
+    }
+
+    private void completeFromCachedResult(TranscodingJob job, String cachedObjectKey) throws Exception {
+        String outputObjectKey = cachedObjectKey;
+        if (copyCachedResults) {
+            outputObjectKey = "transcoded/" + job.getId() + "/" + job.getOutputFilename();
+            minioClient.composeObject(ComposeObjectArgs.builder()
+                    .bucket(outputBucketName)
+                    .object(outputObjectKey)
+                    .sources(List.of(ComposeSource.builder()
+                            .bucket(outputBucketName)
+                            .object(cachedObjectKey)
+                            .build()))
+                    .build());
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        job.setOutputObjectKey(outputObjectKey);
+        job.setOutputFilePath("/" + outputBucketName + "/" + outputObjectKey);
+        job.setStatus(TranscodingJob.TranscodingStatus.COMPLETED);
+        job.setProgressPercentage(100);
+        if (job.getStartedAt() == null) {
+            job.setStartedAt(now);
+        }
+        job.setCompletedAt(now);
+        job.setActualDuration(0L);
+        leases.save(job);
+        leases.release(job.getId());
+
+        log.info("Job {} completed from cached result {}", job.getId(), cachedObjectKey);
+        jobEventPublisher.publishStatus(job, "COMPLETED");
+    }
+
+    /**
+     * Stores the result of a finished single-flight leader and hands it to the jobs that waited on it.
+     * Waiters of a failed leader are re-dispatched and compete for the lead again.
+     */
+    @EventListener
+    public void onJobFinished(JobFinishedEvent event) {
+        TranscodingJob job = event.job();
+        boolean completed = job.getStatus() == TranscodingJob.TranscodingStatus.COMPLETED;
+        if (completed) {
+            String cacheKey = resultCacheKey(job);
+            if (cacheKey != null) {
+                resultCache.store(cacheKey, job.getOutputObjectKey());
+            }
+        }
+        releaseWaiters(job, completed);
+    }
+
+    /**
+     * A leader whose worker died gives up its lead, so its waiters do not wait out another attempt.
+     */
+    @EventListener
+    public void onJobRequeued(JobRequeuedEvent event) {
+        releaseWaiters(event.job(), false);
+    }
+
+    private void releaseWaiters(TranscodingJob job, boolean completed) {
+        for (String waiterId : resultCache.releaseLeadOf(job.getId())) {
+            jobRepository.findById(waiterId)
+                    .filter(waiter -> waiter.getStatus() == TranscodingJob.TranscodingStatus.QUEUED)
+                    .ifPresent(waiter -> {
+                        if (!completed) {
+                            jobEventPublisher.dispatch(waiter);
+                            return;
+                        }
+                        if (!leases.claim(waiter)) {
+                            return;
+                        }
+                        try {
+                            completeFromCachedResult(waiter, job.getOutputObjectKey());
+                        } catch (Exception e) {
+                            log.warn("Could not complete waiting job {} from {}: {}",
+                                    waiterId, job.getOutputObjectKey(), e.getMessage());
+                            leases.unclaim(waiter);
+                            jobEventPublisher.dispatch(waiter);
+                        }
+                    });
+        }
+    }
+
+    private String resultCacheKey(TranscodingJob job) {
+        boolean cacheable = (job.getJobType() == null
+                || job.getJobType() == TranscodingJob.JobType.STANDARD
+                || job.getJobType() == TranscodingJob.JobType.SEGMENTED)
+                && !ffmpegService.isPackagedOutput(job.getOutputFormat());
+        if (!cacheable) {
+            return null;
+        }
+        return resultCache.keyFor(inputBucketName, resolveObjectKey(job), toOutputSettings(job));
+    }
+
+    /**
+     * Probes ahead of admission for scheduling policies that order jobs by their length.
+     */
+    private Double probeBeforeAdmission(TranscodingJob job, String objectKey) {
+        try {
+            return pipeline.run(JobPipeline.Stage.PROBE, () -> probeInputDuration(job, objectKey));
+        } catch (Exception e) {
+            log.warn("Could not probe job {} before admission: {}", job.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Double probeInputDuration(TranscodingJob job, String objectKey) {
+        if (job.getJobType() == TranscodingJob.JobType.SEGMENT || job.getJobType() == TranscodingJob.JobType.LADDER) {
+            return null;
+        }
+        Double cached = probedDurations.get(objectKey);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            String url = minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                    .method(Method.GET)
                     .bucket(inputBucketName)
                     .object(objectKey)
-                    .build())) {
-                Files.copy(stream, inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    .expiry(10, TimeUnit.MINUTES)
+                    .build());
+            Double durationSeconds = ffmpegService.probeDurationSeconds(url);
+            if (durationSeconds != null) {
+                probedDurations.put(objectKey, durationSeconds);
             }
+            return durationSeconds;
+        } catch (Exception e) {
+            log.warn("Could not probe input duration for job {}: {}", job.getId(), e.getMessage());
+            return null;
+        }
+    }
 
-            job.setProgressPercentage(15);
-            jobRepository.save(job);
+    private boolean dispatchSegments(TranscodingJob job, String objectKey,
+                                     TranscodingJobDto.OutputSettingsDto settings) throws Exception {
+        try (InputFileCache.Lease input = fetchInput(objectKey)) {
+            progressTracker.set(job, ProgressTracker.ENCODE_FROM_PERCENT);
+            // splits in the encode stage and uploads the chunks in the upload stage
+            return segmentedTranscodingService.dispatchSegments(job, input.file(), settings);
+        }
+    }
 
-            log.info("Starting FFmpeg transcoding: {} -> {}", inputFile.getName(), outputFile.getName());
+    private boolean transcodeStreaming(TranscodingJob job, String objectKey, String outputObjectKey,
+                                       TranscodingJobDto.OutputSettingsDto settings) throws Exception {
+        log.info("Streaming transcode: bucket={}, key={} -> bucket={}, key={}",
+                inputBucketName, objectKey, outputBucketName, outputObjectKey);
+
+        progressTracker.set(job, ProgressTracker.ENCODE_FROM_PERCENT);
 
-            boolean success = ffmpegService.transcode(inputFile, outputFile,
-                    TranscodingJobDto.OutputSettingsDto.builder()
-                            .videoCodec(job.getVideoCodec())
-                            .audioCodec(job.getAudioCodec())
-                            .outputFormat(job.getOutputFormat())
-                            .videoBitrate(job.getVideoBitrate())
-                            .audioBitrate(job.getAudioBitrate())
-                            .resolution(job.getResolution())
-                            .frameRate(job.getFrameRate())
-                            .processingMode(job.getProcessingMode())
-                            .build());
-
-            if (success && outputFile.exists() && outputFile.length() > 0) {
-                job.setProgressPercentage(85);
-                jobRepository.save(job);
-
-                String outputObjectKey = "transcoded/" + job.getId() + "/" + job.getOutputFilename();
-                log.info("Uploading transcoded file to MinIO: bucket={}, key={}", outputBucketName, outputObjectKey);
-
-                try (FileInputStream fis = new FileInputStream(outputFile)) {
+        boolean success;
+        try (InputStream input = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(inputBucketName)
+                .object(objectKey)
+                .build())) {
+            success = ffmpegService.transcodeStream(input, settings, output ->
                     minioClient.putObject(PutObjectArgs.builder()
                             .bucket(outputBucketName)
                             .object(outputObjectKey)
-                            .stream(fis, outputFile.length(), -1)
+                            .stream(output, -1, streamingPartSize)
                             .contentType("video/" + job.getOutputFormat())
-                            .build());
-                }
+                            .build()));
+        }
+
+        if (!success) {
+            // ffmpeg closing stdout early still completes the upload, so drop the truncated object
+            removeOutputObject(outputObjectKey);
+        }
+        return success;
+    }
 
-                job.setOutputObjectKey(outputObjectKey);
-                job.setOutputFilePath("/" + outputBucketName + "/" + outputObjectKey);
-                job.setStatus(TranscodingJob.TranscodingStatus.COMPLETED);
-                job.setProgressPercentage(100);
-                job.setCompletedAt(LocalDateTime.now());
+    private boolean transcodeOnDisk(TranscodingJob job, String objectKey, String outputObjectKey,
+                                    TranscodingJobDto.OutputSettingsDto settings, boolean segmented) throws Exception {
+        File outputFile = new File(outputDirectory, job.getOutputFilename());
+        outputFile.getParentFile().mkdirs();
 
-                Duration duration = Duration.between(job.getStartedAt(), job.getCompletedAt());
-                job.setActualDuration(duration.getSeconds());
+        try (InputFileCache.Lease input = fetchInput(objectKey)) {
+            File inputFile = input.file();
 
-                log.info("Job completed successfully: {} (duration: {}s)", job.getId(), duration.getSeconds());
+            progressTracker.set(job, ProgressTracker.ENCODE_FROM_PERCENT);
 
-                publishJobStatusEvent(job, "COMPLETED");
-            } else {
-                job.setStatus(TranscodingJob.TranscodingStatus.FAILED);
-                job.setErrorMessage("Transcoding failed: output file not created or empty");
-                log.error("Job failed: {}", job.getId());
-                publishJobStatusEvent(job, "FAILED");
+            log.info("Starting FFmpeg transcoding: {} -> {}", inputFile.getName(), outputFile.getName());
+
+            String contentType = "video/" + job.getOutputFormat();
+            if (!segmented && ffmpegService.isStreamingCandidate(settings)
+                    && ffmpegService.isAppendOnlyOutput(settings.getOutputFormat(), pipelineFragmentedMp4)) {
+                return transcodePipelined(job, inputFile, outputFile, outputObjectKey, contentType, settings);
             }
 
-            jobRepository.save(job);
+            boolean success = segmented
+                    // local segments run localParallelism encodes side by side
+                    ? encode(job, costEstimator.weight(job) * segmentedTranscodingService.getLocalParallelism(),
+                            () -> segmentedTranscodingService.transcodeLocally(job, inputFile, outputFile, settings))
+                    : encode(job, () -> ffmpegService.transcode(inputFile, outputFile, settings));
+            if (!success || !outputFile.exists() || outputFile.length() == 0) {
+                return false;
+            }
 
-        } catch (Exception e) {
-            log.error("Error processing job {}: {}", job.getId(), e.getMessage(), e);
-            job.setStatus(TranscodingJob.TranscodingStatus.FAILED);
-            job.setErrorMessage(e.getMessage());
-            job.setCompletedAt(LocalDateTime.now());
-            jobRepository.save(job);
-            publishJobStatusEvent(job, "FAILED");
+            progressTracker.set(job, ProgressTracker.ENCODE_TO_PERCENT);
+
+            log.info("Uploading transcoded file to MinIO: bucket={}, key={}", outputBucketName, outputObjectKey);
+            pipeline.execute(JobPipeline.Stage.UPLOAD,
+                    () -> objectUploader.upload(outputBucketName, outputObjectKey, outputFile, contentType));
+            return true;
         } finally {
-            concurrencyLimiter.release();
             if (cleanupTempFiles) {
-                cleanupFile(inputFile);
                 cleanupFile(outputFile);
             }
         }
     }
 
-    @Scheduled(fixedDelay = 60000)
-    public void processStaleJobs() {
-        List<TranscodingJob> staleJobs = jobRepository.findByStatus(TranscodingJob.TranscodingStatus.PROCESSING);
-        LocalDateTime threshold = LocalDateTime.now().minusHours(2);
+    /**
+     * Uploads finished parts of an append-only output while ffmpeg is still writing it, so most of
+     * the upload overlaps the encode.
+     */
+    private boolean transcodePipelined(TranscodingJob job, File inputFile, File outputFile, String outputObjectKey,
+                                       String contentType, TranscodingJobDto.OutputSettingsDto settings) throws Exception {
+        ParallelObjectUploader.Upload upload =
+                objectUploader.beginPipelined(outputBucketName, outputObjectKey, outputFile, contentType);
+        boolean success;
+        try {
+            success = encode(job, () -> ffmpegService.transcode(inputFile, outputFile, settings, true));
+        } catch (Exception e) {
+            upload.abort();
+            throw e;
+        }
+        if (!success || !outputFile.exists() || outputFile.length() == 0) {
+            upload.abort();
+            return false;
+        }
+        pipeline.execute(JobPipeline.Stage.UPLOAD, upload::finish);
+        return true;
+    }
+
+    /**
+     * Runs {@code task} in the encode stage, holding the job's estimated CPU units of the encode budget.
+     */
+    private <T> T encode(TranscodingJob job, JobPipeline.StageTask<T> task) throws Exception {
+        return encode(job, costEstimator.weight(job), task);
+    }
 
-        for (TranscodingJob job : staleJobs) {
-            if (job.getStartedAt() != null && job.getStartedAt().isBefore(threshold)) {
-                log.warn("Marking stale job as FAILED: {} (started at {})", job.getId(), job.getStartedAt());
-                job.setStatus(TranscodingJob.TranscodingStatus.FAILED);
-                job.setErrorMessage("Job timed out after 2 hours");
-                job.setCompletedAt(LocalDateTime.now());
-                jobRepository.save(job);
+    /**
+     * Runs {@code task} in the encode stage holding {@code units} of the encode budget, with ffmpeg
+     * pinned to the matching share of the cores. Premium jobs may use the reserved share of the budget.
+     */
+    private <T> T encode(TranscodingJob job, double units, JobPipeline.StageTask<T> task) throws Exception {
+        return pipeline.run(JobPipeline.Stage.ENCODE, units, qosPolicy.isPremium(job), () -> {
+            try (CoreBudgetManager.Allocation cores = coreBudget.allocate(job, units)) {
+                return task.call();
             }
-        }
+        });
+    }
+
+    private InputFileCache.Lease fetchInput(String objectKey) throws Exception {
+        return pipeline.run(JobPipeline.Stage.FETCH, () -> inputFileCache.acquire(inputBucketName, objectKey));
     }
 
     public TranscodingJob getTranscodingJob(String jobId, String userId) {
@@ -265,17 +825,33 @@ public class TranscodingService {
         return jobRepository.findByUserIdAndStatus(userId, status, pageable);
     }
 
+    /**
+     * Cancels a queued or running job. A running job is stopped by the worker that owns it, which kills
+     * its ffmpeg processes, aborts its uploads and frees its slots as soon as the broadcast arrives.
+     */
     public void cancelTranscodingJob(String jobId, String userId) {
         TranscodingJob job = getTranscodingJob(jobId, userId);
 
-        if (job.getStatus() == TranscodingJob.TranscodingStatus.QUEUED) {
-            job.setStatus(TranscodingJob.TranscodingStatus.CANCELLED);
-            job.setCompletedAt(LocalDateTime.now());
-            jobRepository.save(job);
-            log.info("Job cancelled: {}", jobId);
-        } else {
+        LocalDateTime now = LocalDateTime.now();
+        if (jobRepository.cancelIfActive(jobId, now) == 0) {
             throw new RuntimeException("Cannot cancel job in status: " + job.getStatus());
         }
+        if (job.getJobType() == TranscodingJob.JobType.SEGMENTED) {
+            jobRepository.cancelActiveSegments(jobId, now);
+        }
+        jobEventPublisher.publishCancel(jobId);
+
+        job.setStatus(TranscodingJob.TranscodingStatus.CANCELLED);
+        job.setCompletedAt(now);
+        jobEventPublisher.publishStatus(job, "CANCELLED");
+        log.info("Job cancelled: {}", jobId);
+    }
+
+    /**
+     * @return every live worker as advertised in the registry
+     */
+    public List<WorkerInfo> getWorkers() {
+        return workerRegistry.workers();
     }
 
     public SystemInfo getSystemInfo() {
@@ -306,11 +882,38 @@ public class TranscodingService {
                 .build();
     }
 
+    /**
+     * @return queued jobs in the order the scheduling policy would run them
+     */
     public List<TranscodingJob> getQueuedJobs() {
-        return jobRepository.findQueuedJobsOrderByPriorityAndCreatedAt();
+        return jobRepository.findByStatus(TranscodingJob.TranscodingStatus.QUEUED).stream()
+                .sorted(Comparator.comparingLong(job -> admissionQueue.admissionKey(job, submittedAtMillis(job), null)))
+                .toList();
+    }
+
+    private static long submittedAtMillis(TranscodingJob job) {
+        return job.getCreatedAt() != null
+                ? job.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+    }
+
+    private TranscodingJobDto.OutputSettingsDto toOutputSettings(TranscodingJob job) {
+        return TranscodingJobDto.OutputSettingsDto.builder()
+                .videoCodec(job.getVideoCodec())
+                .audioCodec(job.getAudioCodec())
+                .outputFormat(job.getOutputFormat())
+                .videoBitrate(job.getVideoBitrate())
+                .audioBitrate(job.getAudioBitrate())
+                .resolution(job.getResolution())
+                .frameRate(job.getFrameRate())
+                .processingMode(job.getProcessingMode())
+                .preset(qosPolicy.preset(job))
+                .build();
     }
 
     private String resolveObjectKey(TranscodingJob job) {
+        if (job.getInputObjectKey() != null) {
+            return job.getInputObjectKey();
+        }
         if (job.getInputFile() != null && job.getInputFile().getObjectKey() != null) {
             return job.getInputFile().getObjectKey();
         }
@@ -323,37 +926,14 @@ public class TranscodingService {
         return baseName + "." + extension;
     }
 
-    private String getExtension(String filename) {
-        if (filename != null && filename.contains(".")) {
-            return filename.substring(filename.lastIndexOf("."));
-        }
-        return ".mp4";
-    }
-
-    private void sendToKafka(TranscodingJob job) {
-        try {
-            String json = objectMapper.writeValueAsString(job);
-            kafkaTemplate.send("transcoding-jobs", job.getId(), json);
-            log.info("Job sent to Kafka: {}", job.getId());
-        } catch (Exception e) {
-            log.error("Failed to send job to Kafka: {}", job.getId(), e);
-        }
-    }
-
-    private void publishJobStatusEvent(TranscodingJob job, String status) {
+    private void removeOutputObject(String outputObjectKey) {
         try {
-            Map<String, Object> event = Map.of(
-                    "jobId", job.getId(),
-                    "userId", job.getUser().getId(),
-                    "status", status,
-                    "outputFilename", job.getOutputFilename() != null ? job.getOutputFilename() : "",
-                    "timestamp", LocalDateTime.now().toString()
-            );
-            String json = objectMapper.writeValueAsString(event);
-            kafkaTemplate.send("transcoding-status", job.getId(), json);
-            log.info("Published job status event: jobId={}, status={}", job.getId(), status);
+            minioClient.removeObject(RemoveObjectArgs.builder()
+                    .bucket(outputBucketName)
+                    .object(outputObjectKey)
+                    .build());
         } catch (Exception e) {
-            log.error("Failed to publish job status event: {}", e.getMessage(), e);
+            log.warn("Failed to remove partial output {}: {}", outputObjectKey, e.getMessage());
         }
     }
 
@@ -0,0 +1,250 @@
+package com.sanjay.transcoding.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.dto.WorkerInfo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The transcoding workers that are alive, what they can encode and how busy they are. Every worker
+ * advertises itself in Redis on a heartbeat; an entry that is not renewed expires. Dispatch uses the
+ * registry to send each job to the least loaded worker that has its encoders. Without Redis the
+ * registry is empty and jobs go to the shared topic as before.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class WorkerRegistry {
+
+    private static final String WORKERS_KEY = "transcode:workers";
+    private static final String WORKER_PREFIX = "transcode:worker:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final FFmpegService ffmpegService;
+    private final ConsumerBackPressure consumerBackPressure;
+    private final JobPipeline pipeline;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${WORKER_ID:default-worker}")
+    private String workerId;
+
+    @Value("${transcoding.workers.routing-enabled:true}")
+    private boolean routingEnabled;
+
+    @Value("${transcoding.workers.ttl-seconds:20}")
+    private long ttlSeconds;
+
+    @Value("${transcoding.workers.min-free-scratch-mb:1024}")
+    private long minFreeScratchMb;
+
+    @Value("${transcoding.processing.temp-directory:/tmp/transcode}")
+    private String tempDirectory;
+
+    @Value("${transcoding.processing.max-concurrent-jobs:4}")
+    private int maxConcurrentJobs;
+
+    private final com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    /** Jobs sent to each worker since its load was last read, which the advertised load does not show yet. */
+    private final Map<String, AtomicInteger> assigned = new ConcurrentHashMap<>();
+    private volatile List<WorkerInfo> workers = List.of();
+    private Set<String> encoders;
+    private String gpuType;
+
+    @PostConstruct
+    public void init() {
+        encoders = ffmpegService.getEncoders();
+        gpuType = ffmpegService.isGpuAvailable() ? ffmpegService.getGpuType() : null;
+        Gauge.builder("transcoding.workers.live", this, registry -> registry.workers.size())
+                .description("Workers with a live registry entry").register(meterRegistry);
+        log.info("WorkerRegistry initialized: worker={}, routing={}, {} encoders", workerId, routingEnabled,
+                encoders.size());
+    }
+
+    @Scheduled(fixedDelayString = "${transcoding.workers.heartbeat-ms:5000}")
+    public void heartbeat() {
+        try {
+            redisTemplate.opsForValue().set(WORKER_PREFIX + workerId, objectMapper.writeValueAsString(describe()),
+                    Duration.ofSeconds(ttlSeconds));
+            redisTemplate.opsForSet().add(WORKERS_KEY, workerId);
+            refresh();
+        } catch (Exception e) {
+            log.warn("Could not advertise worker {}: {}", workerId, e.getMessage());
+            workers = List.of();
+        }
+    }
+
+    @PreDestroy
+    public void deregister() {
+        try {
+            redisTemplate.delete(WORKER_PREFIX + workerId);
+            redisTemplate.opsForSet().remove(WORKERS_KEY, workerId);
+        } catch (Exception e) {
+            log.debug("Could not deregister worker {}: {}", workerId, e.getMessage());
+        }
+    }
+
+    /**
+     * @return this worker as it advertises itself
+     */
+    public WorkerInfo describe() {
+        return WorkerInfo.builder()
+                .workerId(workerId)
+                .encoders(encoders)
+                .gpuType(gpuType)
+                .cpuCores(Runtime.getRuntime().availableProcessors())
+                .cpuUsage(os.getCpuLoad() >= 0 ? os.getCpuLoad() * 100 : null)
+                .freeScratchBytes(new File(tempDirectory).getUsableSpace())
+                .outstandingJobs(consumerBackPressure.outstanding())
+                .maxConcurrentJobs(maxConcurrentJobs)
+                .encodeUnits(pipeline.encodeUnits())
+                .heartbeatAt(LocalDateTime.now())
+                .build();
+    }
+
+    /**
+     * @return the live workers as of the last heartbeat
+     */
+    public List<WorkerInfo> workers() {
+        return workers;
+    }
+
+    /**
+     * Picks the worker to send {@code job} to: one that can encode it and has scratch space, the least
+     * loaded of them or, given an {@code affinityKey}, the one the key hashes to unless it is saturated.
+     *
+     * @return the worker id, or null when the job should go to the shared topic
+     */
+    public String select(TranscodingJob job, String affinityKey) {
+        if (!routingEnabled) {
+            return null;
+        }
+        List<WorkerInfo> capable = workers.stream()
+                .filter(worker -> canEncode(worker, job))
+                .filter(worker -> worker.getFreeScratchBytes() == null
+                        || worker.getFreeScratchBytes() >= minFreeScratchMb * 1024 * 1024)
+                .toList();
+        if (capable.isEmpty()) {
+            if (!workers.isEmpty()) {
+                log.warn("No live worker can encode job {} ({}/{})", job.getId(), job.getVideoCodec(),
+                        job.getAudioCodec());
+            }
+            return null;
+        }
+        WorkerInfo target = null;
+        if (affinityKey != null) {
+            // rendezvous hashing: the key keeps its worker as long as that worker stays up
+            target = capable.stream()
+                    .filter(worker -> load(worker) < 1.0)
+                    .max(Comparator.comparingLong(worker -> rendezvousScore(affinityKey, worker.getWorkerId())))
+                    .orElse(null);
+        }
+        if (target == null) {
+            target = capable.stream().min(Comparator.comparingDouble(this::load)).orElseThrow();
+        }
+        assigned.computeIfAbsent(target.getWorkerId(), id -> new AtomicInteger()).incrementAndGet();
+        return target.getWorkerId();
+    }
+
+    public boolean isLive(String id) {
+        return workers.stream().anyMatch(worker -> worker.getWorkerId().equals(id));
+    }
+
+    private void refresh() throws Exception {
+        Set<String> ids = redisTemplate.opsForSet().members(WORKERS_KEY);
+        if (ids == null || ids.isEmpty()) {
+            workers = List.of();
+            return;
+        }
+        List<String> keys = ids.stream().map(id -> WORKER_PREFIX + id).toList();
+        List<String> entries = redisTemplate.opsForValue().multiGet(keys);
+        List<WorkerInfo> live = new ArrayList<>();
+        Set<String> expired = new HashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String entry = entries != null ? entries.get(i) : null;
+            if (entry == null) {
+                expired.add(keys.get(i).substring(WORKER_PREFIX.length()));
+            } else {
+                live.add(objectMapper.readValue(entry, WorkerInfo.class));
+            }
+        }
+        if (!expired.isEmpty()) {
+            redisTemplate.opsForSet().remove(WORKERS_KEY, expired.toArray());
+            log.info("Workers {} stopped heartbeating", expired);
+        }
+        live.sort(Comparator.comparing(WorkerInfo::getWorkerId));
+        workers = live;
+        assigned.clear();
+    }
+
+    /**
+     * Highest random weight score of {@code workerId} for {@code key}. Both hashes go through a 64-bit
+     * finalizer, so workers whose ids differ only in their last characters still win evenly.
+     */
+    static long rendezvousScore(String key, String workerId) {
+        long h = ((long) key.hashCode() << 32) | (workerId.hashCode() & 0xffffffffL);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private double load(WorkerInfo worker) {
+        AtomicInteger sent = assigned.get(worker.getWorkerId());
+        int outstanding = (worker.getOutstandingJobs() != null ? worker.getOutstandingJobs() : 0)
+                + (sent != null ? sent.get() : 0);
+        int capacity = worker.getMaxConcurrentJobs() != null && worker.getMaxConcurrentJobs() > 0
+                ? worker.getMaxConcurrentJobs() : 1;
+        return (double) outstanding / capacity;
+    }
+
+    private boolean canEncode(WorkerInfo worker, TranscodingJob job) {
+        Set<String> available = worker.getEncoders();
+        if (available == null || available.isEmpty()) {
+            // could not list its encoders, do not rule it out
+            return true;
+        }
+        for (String codec : requiredEncoders(job)) {
+            if (!available.contains(codec)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> requiredEncoders(TranscodingJob job) {
+        Set<String> required = new HashSet<>();
+        for (String codec : new String[] {job.getVideoCodec(), job.getAudioCodec()}) {
+            if (codec != null && !codec.isBlank() && !"copy".equalsIgnoreCase(codec)) {
+                required.add(codec.toLowerCase(Locale.ROOT));
+            }
+        }
+        return required;
+    }
+}
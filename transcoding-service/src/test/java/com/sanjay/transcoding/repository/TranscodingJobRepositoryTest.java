@@ -0,0 +1,179 @@
+package com.sanjay.transcoding.repository;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.common.entity.User;
+import com.sanjay.common.entity.VideoFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Runs the lease queries against H2, as they only fence when their WHERE clauses are right.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@ContextConfiguration(classes = TranscodingJobRepositoryTest.JpaConfig.class)
+class TranscodingJobRepositoryTest {
+
+    @Configuration
+    @EntityScan("com.sanjay.common.entity")
+    @EnableJpaRepositories("com.sanjay.transcoding.repository")
+    static class JpaConfig {
+    }
+
+    @Autowired
+    private TranscodingJobRepository jobRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private final LocalDateTime now = LocalDateTime.now();
+    private String jobId;
+
+    @BeforeEach
+    void setUp() {
+        User user = entityManager.persist(User.builder()
+                .username("alice").email("alice@example.com").password("secret").build());
+        VideoFile input = entityManager.persist(VideoFile.builder()
+                .filename("in.mp4").originalFilename("in.mp4").contentType("video/mp4").fileSize(1L)
+                .filePath("/video-files/in.mp4").bucketName("video-files").objectKey("in.mp4").user(user).build());
+        jobId = entityManager.persist(TranscodingJob.builder().user(user).inputFile(input).build()).getId();
+        entityManager.flush();
+    }
+
+    @Test
+    void onlyOneClaimWinsAndEachClaimGetsANewToken() {
+        assertThat(jobRepository.claim(jobId, "worker-1", now, now.plusSeconds(30))).isEqualTo(1);
+        assertThat(jobRepository.claim(jobId, "worker-2", now, now.plusSeconds(30))).isZero();
+
+        TranscodingJob job = reload();
+        assertThat(job.getStatus()).isEqualTo(TranscodingJob.TranscodingStatus.PROCESSING);
+        assertThat(job.getWorkerId()).isEqualTo("worker-1");
+        assertThat(job.getLeaseToken()).isEqualTo(1L);
+        assertThat(job.getAttempts()).isEqualTo(1);
+        assertThat(jobRepository.findLeaseToken(jobId, "worker-1")).isEqualTo(1L);
+        assertThat(jobRepository.findLeaseToken(jobId, "worker-2")).isNull();
+    }
+
+    @Test
+    void onlyTheCurrentTokenRenews() {
+        jobRepository.claim(jobId, "worker-1", now, now.plusSeconds(30));
+
+        assertThat(jobRepository.renewLease(jobId, 1L, now.plusSeconds(60))).isEqualTo(1);
+        assertThat(jobRepository.renewLease(jobId, 0L, now.plusSeconds(90))).isZero();
+        assertThat(reload().getLeaseExpiresAt()).isCloseTo(now.plusSeconds(60), within(1, ChronoUnit.MILLIS));
+    }
+
+    @Test
+    void expiredLeaseIsRequeuedOnceAndFencesItsFormerOwner() {
+        jobRepository.claim(jobId, "worker-1", now.minusMinutes(1), now.minusSeconds(1));
+
+        // a lease that has not run out yet stays
+        assertThat(jobRepository.requeueExpired(jobId, 1L, now.minusSeconds(2))).isZero();
+        assertThat(jobRepository.requeueExpired(jobId, 1L, now)).isEqualTo(1);
+        assertThat(jobRepository.requeueExpired(jobId, 1L, now)).isZero();
+        assertThat(reload().getStatus()).isEqualTo(TranscodingJob.TranscodingStatus.QUEUED);
+
+        jobRepository.claim(jobId, "worker-2", now, now.plusSeconds(30));
+        assertThat(reload().getLeaseToken()).isEqualTo(2L);
+        assertThat(reload().getAttempts()).isEqualTo(2);
+        // the first owner comes back and finds it can no longer renew, write progress or be reaped
+        assertThat(jobRepository.renewLease(jobId, 1L, now.plusSeconds(60))).isZero();
+        assertThat(jobRepository.updateEncodeProgress(jobId, 1L, 50, null, null, null)).isZero();
+        assertThat(jobRepository.failExpired(jobId, 1L, "gone", now.plusMinutes(1))).isZero();
+    }
+
+    @Test
+    void expiredLeaseOnItsLastAttemptFails() {
+        jobRepository.claim(jobId, "worker-1", now.minusMinutes(1), now.minusSeconds(1));
+
+        assertThat(jobRepository.failExpired(jobId, 1L, "worker-1 stopped responding", now)).isEqualTo(1);
+
+        TranscodingJob job = reload();
+        assertThat(job.getStatus()).isEqualTo(TranscodingJob.TranscodingStatus.FAILED);
+        assertThat(job.getErrorMessage()).isEqualTo("worker-1 stopped responding");
+        assertThat(job.getLeaseExpiresAt()).isNull();
+    }
+
+    @Test
+    void unclaimGivesTheAttemptBack() {
+        jobRepository.claim(jobId, "worker-1", now, now.plusSeconds(30));
+
+        assertThat(jobRepository.unclaim(jobId, 0L)).isZero();
+        assertThat(jobRepository.unclaim(jobId, 1L)).isEqualTo(1);
+
+        TranscodingJob job = reload();
+        assertThat(job.getStatus()).isEqualTo(TranscodingJob.TranscodingStatus.QUEUED);
+        assertThat(job.getAttempts()).isZero();
+        assertThat(job.getWorkerId()).isNull();
+    }
+
+    @Test
+    void progressIsOnlyWrittenForTheLeaseHolder() {
+        jobRepository.claim(jobId, "worker-1", now, now.plusSeconds(30));
+
+        assertThat(jobRepository.updateEncodeProgress(jobId, 1L, 40, 60.0, 2.0, 90L)).isEqualTo(1);
+
+        TranscodingJob job = reload();
+        assertThat(job.getProgressPercentage()).isEqualTo(40);
+        assertThat(job.getFps()).isEqualTo(60.0);
+        assertThat(job.getEtaSeconds()).isEqualTo(90L);
+    }
+
+    @Test
+    void segmentedParentIsOnlyReapedOnceItsStitchIsClaimed() {
+        jobRepository.claim(jobId, "worker-1", now.minusMinutes(5), now.minusMinutes(4));
+        TranscodingJob parent = reload();
+        parent.setJobType(TranscodingJob.JobType.SEGMENTED);
+        jobRepository.saveAndFlush(parent);
+        jobRepository.advanceSegmentedProgress(jobId, 1L, 89);
+
+        // waiting on its segments, the stale lease of the splitting worker does not count
+        assertThat(jobRepository.findExpiredLeases(now)).isEmpty();
+
+        assertThat(jobRepository.claimSegmentStitch(jobId, "worker-2", now.minusSeconds(1))).isEqualTo(1);
+        assertThat(jobRepository.claimSegmentStitch(jobId, "worker-3", now.plusSeconds(30))).isZero();
+        assertThat(jobRepository.findExpiredLeases(now)).extracting(TranscodingJob::getId).containsExactly(jobId);
+
+        assertThat(jobRepository.reclaimStitch(jobId, 1L, "worker-3", now, now.plusSeconds(30))).isEqualTo(1);
+        assertThat(jobRepository.reclaimStitch(jobId, 1L, "worker-4", now, now.plusSeconds(30))).isZero();
+        TranscodingJob job = reload();
+        assertThat(job.getStatus()).isEqualTo(TranscodingJob.TranscodingStatus.PROCESSING);
+        assertThat(job.getWorkerId()).isEqualTo("worker-3");
+        assertThat(job.getLeaseToken()).isEqualTo(2L);
+        assertThat(job.getAttempts()).isEqualTo(2);
+        assertThat(jobRepository.findExpiredLeases(now)).isEmpty();
+        // the first stitcher comes back and can no longer renew
+        assertThat(jobRepository.renewLease(jobId, 1L, now.plusSeconds(60))).isZero();
+    }
+
+    @Test
+    void acceptanceLastsUntilTheJobIsSentElsewhere() {
+        assertThat(jobRepository.markAccepted(jobId, "worker-1", now)).isEqualTo(1);
+        assertThat(reload().getAcceptedAt()).isCloseTo(now, within(1, ChronoUnit.MILLIS));
+
+        assertThat(jobRepository.assignWorker(jobId, "worker-2")).isEqualTo(1);
+        TranscodingJob job = reload();
+        assertThat(job.getWorkerId()).isEqualTo("worker-2");
+        assertThat(job.getAcceptedAt()).isNull();
+
+        jobRepository.claim(jobId, "worker-2", now, now.plusSeconds(30));
+        assertThat(jobRepository.markAccepted(jobId, "worker-3", now)).isZero();
+    }
+
+    private TranscodingJob reload() {
+        entityManager.clear();
+        return jobRepository.findById(jobId).orElseThrow();
+    }
+}
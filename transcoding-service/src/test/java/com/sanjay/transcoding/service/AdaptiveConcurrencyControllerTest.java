@@ -0,0 +1,93 @@
+package com.sanjay.transcoding.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdaptiveConcurrencyControllerTest {
+
+    private JobPipeline pipeline;
+    private AdaptiveConcurrencyController controller;
+    private double units = 4.0;
+    private long admitted;
+
+    @BeforeEach
+    void setUp() {
+        pipeline = mock(JobPipeline.class);
+        when(pipeline.encodeUnits()).thenAnswer(invocation -> units);
+        when(pipeline.admitted(JobPipeline.Stage.ENCODE)).thenAnswer(invocation -> admitted);
+        doAnswer(invocation -> units = invocation.getArgument(0)).when(pipeline).resizeEncodeUnits(anyDouble());
+        controller = new AdaptiveConcurrencyController(pipeline, mock(ProgressTracker.class), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(controller, "enabled", true);
+        ReflectionTestUtils.setField(controller, "minUnits", 1.0);
+        ReflectionTestUtils.setField(controller, "maxUnits", 16.0);
+        ReflectionTestUtils.setField(controller, "stepUnits", 0.5);
+        ReflectionTestUtils.setField(controller, "decreaseFactor", 0.8);
+        ReflectionTestUtils.setField(controller, "targetCpu", 0.85);
+        ReflectionTestUtils.setField(controller, "maxCpu", 0.95);
+        ReflectionTestUtils.setField(controller, "maxLoadPerCore", 1.5);
+        ReflectionTestUtils.setField(controller, "minFpsGain", 0.05);
+        controller.init();
+    }
+
+    @Test
+    void growsWhileEncodesWaitAndTheCpuHasHeadroom() {
+        waiting(1);
+
+        controller.adjust(0.5, 0.5, 100);
+
+        assertThat(units).isEqualTo(4.5);
+    }
+
+    @Test
+    void keepsGrowingUntilAStepLetsAnEncodeIn() {
+        waiting(1);
+
+        controller.adjust(0.5, 0.5, 100);
+        // the waiting encode needs a whole unit, the first step admitted nothing
+        controller.adjust(0.5, 0.5, 100);
+        assertThat(units).isEqualTo(5.0);
+
+        admitted++;
+        controller.adjust(0.5, 0.5, 100);
+        // no fps gain from the admitted encode, both steps are taken back
+        assertThat(units).isEqualTo(4.0);
+    }
+
+    @Test
+    void keepsAStepThatRaisedFps() {
+        waiting(1);
+        controller.adjust(0.5, 0.5, 100);
+        admitted++;
+        waiting(0);
+
+        controller.adjust(0.6, 0.5, 130);
+
+        assertThat(units).isEqualTo(4.5);
+    }
+
+    @Test
+    void shrinksWhenOverloaded() {
+        controller.adjust(0.99, 0.5, 100);
+
+        assertThat(units).isEqualTo(3.2);
+    }
+
+    @Test
+    void holdsWithoutDemand() {
+        controller.adjust(0.5, 0.5, 100);
+
+        assertThat(units).isEqualTo(4.0);
+    }
+
+    private void waiting(int count) {
+        when(pipeline.waiting(JobPipeline.Stage.ENCODE)).thenReturn(count);
+    }
+}
@@ -0,0 +1,122 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.dto.WorkerInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchWindowTest {
+
+    private WorkerRegistry workerRegistry;
+    private BatchWindow batchWindow;
+
+    @BeforeEach
+    void setUp() {
+        workerRegistry = mock(WorkerRegistry.class);
+        batchWindow = new BatchWindow(workerRegistry, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(batchWindow, "enabled", true);
+        ReflectionTestUtils.setField(batchWindow, "zoneProperty", "UTC");
+        ReflectionTestUtils.setField(batchWindow, "utilizationThreshold", 0.5);
+    }
+
+    @Test
+    void windowMayWrapPastMidnight() {
+        init("22:00-02:00");
+
+        assertThat(batchWindow.inWindow(LocalTime.of(22, 0))).isTrue();
+        assertThat(batchWindow.inWindow(LocalTime.of(23, 30))).isTrue();
+        assertThat(batchWindow.inWindow(LocalTime.of(1, 59))).isTrue();
+        assertThat(batchWindow.inWindow(LocalTime.of(2, 0))).isFalse();
+        assertThat(batchWindow.inWindow(LocalTime.of(21, 59))).isFalse();
+        assertThat(batchWindow.inWindow(LocalTime.NOON)).isFalse();
+    }
+
+    @Test
+    void severalWindowsAreAllOpen() {
+        init(" 00:00-06:00 , 12:30-13:30,");
+
+        assertThat(batchWindow.inWindow(LocalTime.of(5, 0))).isTrue();
+        assertThat(batchWindow.inWindow(LocalTime.of(13, 0))).isTrue();
+        assertThat(batchWindow.inWindow(LocalTime.of(6, 0))).isFalse();
+        assertThat(batchWindow.inWindow(LocalTime.of(12, 29))).isFalse();
+    }
+
+    @Test
+    void windowCanCloseAtMidnight() {
+        init("18:00-24:00");
+
+        assertThat(batchWindow.inWindow(LocalTime.of(23, 59, 59))).isTrue();
+        assertThat(batchWindow.inWindow(LocalTime.MIDNIGHT)).isFalse();
+    }
+
+    @Test
+    void malformedWindowsFailAtStartup() {
+        ReflectionTestUtils.setField(batchWindow, "windowsProperty", "22:00");
+        assertThatThrownBy(batchWindow::init).isInstanceOf(IllegalStateException.class).hasMessageContaining("22:00");
+
+        ReflectionTestUtils.setField(batchWindow, "windowsProperty", "25:00-02:00");
+        assertThatThrownBy(batchWindow::init).isInstanceOf(DateTimeParseException.class);
+    }
+
+    @Test
+    void outsideAWindowLowJobsFillTheFleetUpToTheThreshold() {
+        init("");
+        when(workerRegistry.workers()).thenReturn(List.of(worker(8, 1), worker(4, 1)));
+
+        // half of 12 slots, 2 busy and 1 on its way
+        assertThat(batchWindow.allowance(1)).isEqualTo(3);
+        assertThat(batchWindow.allowance(5)).isZero();
+    }
+
+    @Test
+    void withoutTheRegistryThisWorkerAloneCounts() {
+        init("");
+        when(workerRegistry.describe()).thenReturn(worker(4, 1));
+
+        assertThat(batchWindow.allowance(0)).isEqualTo(1);
+        assertThat(batchWindow.holds(TranscodingJob.builder().priority(TranscodingJob.JobPriority.LOW).build()))
+                .isFalse();
+        assertThat(batchWindow.allowance(1)).isZero();
+    }
+
+    @Test
+    void onlyLowJobsAreHeld() {
+        init("");
+        when(workerRegistry.workers()).thenReturn(List.of(worker(4, 4)));
+
+        assertThat(batchWindow.holds(TranscodingJob.builder().priority(TranscodingJob.JobPriority.LOW).build()))
+                .isTrue();
+        assertThat(batchWindow.holds(TranscodingJob.builder().priority(TranscodingJob.JobPriority.NORMAL).build()))
+                .isFalse();
+    }
+
+    @Test
+    void insideAWindowOrWhenDisabledNothingIsHeld() {
+        init("00:00-24:00");
+        when(workerRegistry.workers()).thenReturn(List.of(worker(4, 4)));
+        assertThat(batchWindow.allowance(10)).isEqualTo(Long.MAX_VALUE);
+
+        ReflectionTestUtils.setField(batchWindow, "enabled", false);
+        assertThat(batchWindow.allowance(10)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    private void init(String windows) {
+        ReflectionTestUtils.setField(batchWindow, "windowsProperty", windows);
+        batchWindow.init();
+    }
+
+    private static WorkerInfo worker(int maxConcurrentJobs, int outstandingJobs) {
+        return WorkerInfo.builder().maxConcurrentJobs(maxConcurrentJobs).outstandingJobs(outstandingJobs).build();
+    }
+}
@@ -0,0 +1,106 @@
+package com.sanjay.transcoding.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConsumerBackPressureTest {
+
+    private static final String TOPIC = "transcoding-jobs";
+    private static final int MAX_POLL_RECORDS = 2;
+
+    private final MessageListenerContainer container = mock(MessageListenerContainer.class);
+    private ConsumerBackPressure backPressure;
+
+    @BeforeEach
+    void setUp() {
+        KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+        when(registry.getListenerContainer(anyString())).thenReturn(container);
+        backPressure = new ConsumerBackPressure(registry, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(backPressure, "capacity", 16);
+        ReflectionTestUtils.setField(backPressure, "resumeThreshold", 12);
+        ReflectionTestUtils.setField(backPressure, "spillThreshold", 4);
+        backPressure.init();
+    }
+
+    @Test
+    void holdsUnfinishedJobsUpToCapacityAcrossPolls() {
+        List<Acknowledgment> acks = new ArrayList<>();
+        for (int offset = 0; offset < 15; offset++) {
+            acks.add(take(record(0, offset)));
+        }
+
+        assertThat(backPressure.outstanding()).isGreaterThan(MAX_POLL_RECORDS);
+        verify(container, never()).pause();
+        acks.forEach(ack -> verify(ack, never()).acknowledge());
+
+        take(record(0, 15));
+
+        assertThat(backPressure.outstanding()).isEqualTo(16);
+        verify(container, times(2)).pause();
+    }
+
+    @Test
+    void acknowledgesOnlyTheContiguousFinishedPrefix() {
+        List<Acknowledgment> acks = new ArrayList<>();
+        for (int offset = 0; offset < 5; offset++) {
+            acks.add(take(record(0, offset)));
+        }
+
+        finish(record(0, 1));
+        finish(record(0, 3));
+        acks.forEach(ack -> verify(ack, never()).acknowledge());
+
+        finish(record(0, 0));
+        verify(acks.get(1)).acknowledge();
+        verify(acks.get(0), never()).acknowledge();
+
+        finish(record(0, 2));
+        verify(acks.get(3)).acknowledge();
+        verify(acks.get(4), never()).acknowledge();
+    }
+
+    @Test
+    void partitionsAreAcknowledgedIndependently() {
+        Acknowledgment first = take(record(0, 7));
+        take(record(0, 8));
+        Acknowledgment other = take(record(1, 3));
+
+        finish(record(1, 3));
+
+        verify(other).acknowledge();
+        verify(first, never()).acknowledge();
+    }
+
+    private Acknowledgment take(ConsumerRecord<String, String> record) {
+        Acknowledgment ack = mock(Acknowledgment.class);
+        backPressure.received(record, ack);
+        backPressure.accepted();
+        return ack;
+    }
+
+    private void finish(ConsumerRecord<String, String> record) {
+        backPressure.completed(record);
+        backPressure.finished();
+    }
+
+    private static ConsumerRecord<String, String> record(int partition, long offset) {
+        return new ConsumerRecord<>(TOPIC, partition, offset, null, "{}");
+    }
+}
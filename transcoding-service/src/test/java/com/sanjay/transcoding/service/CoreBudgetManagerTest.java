@@ -0,0 +1,116 @@
+package com.sanjay.transcoding.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanjay.common.entity.TranscodingJob;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CoreBudgetManagerTest {
+
+    private JobCancellationRegistry cancellations;
+    private CoreBudgetManager coreBudget;
+    private JobCancellationRegistry.Handle handle;
+
+    @BeforeEach
+    void setUp() {
+        JobPipeline pipeline = mock(JobPipeline.class);
+        when(pipeline.encodeUnits()).thenReturn(4.0);
+        cancellations = new JobCancellationRegistry(new ObjectMapper(), new SimpleMeterRegistry());
+        coreBudget = new CoreBudgetManager(pipeline, cancellations, new SimpleMeterRegistry());
+        // four cores, pinned with taskset, without probing the host
+        ReflectionTestUtils.setField(coreBudget, "enabled", true);
+        ReflectionTestUtils.setField(coreBudget, "totalCores", 4);
+        ReflectionTestUtils.setField(coreBudget, "pinning", true);
+        ReflectionTestUtils.setField(coreBudget, "taskset", "taskset");
+        ((BitSet) ReflectionTestUtils.getField(coreBudget, "free")).set(0, 4);
+        handle = cancellations.register(job("job-1"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        cancellations.unregister(handle);
+    }
+
+    @Test
+    void sideBySideProcessesGetDisjointSlicesOfTheJobsCores() throws Exception {
+        try (CoreBudgetManager.Allocation cores = coreBudget.allocate(job("job-1"), 4)) {
+            assertThat(coreBudget.threads()).isEqualTo(4);
+            try (CoreBudgetManager.Binding first = coreBudget.slice(0, 2)) {
+                assertThat(coreBudget.wrap(List.of("ffmpeg"))).containsExactly("taskset", "-c", "0,1", "ffmpeg");
+                assertThat(coreBudget.threads()).isEqualTo(2);
+            }
+            try (CoreBudgetManager.Binding second = coreBudget.slice(1, 2)) {
+                assertThat(coreBudget.wrap(List.of("ffmpeg"))).containsExactly("taskset", "-c", "2,3", "ffmpeg");
+            }
+            try (CoreBudgetManager.Binding crowded = coreBudget.slice(5, 8)) {
+                // more slices than cores share single cores
+                assertThat(coreBudget.wrap(List.of("ffmpeg"))).containsExactly("taskset", "-c", "1", "ffmpeg");
+                assertThat(coreBudget.threads()).isEqualTo(1);
+            }
+            assertThat(coreBudget.wrap(List.of("ffmpeg"))).containsExactly("taskset", "-c", "0,1,2,3", "ffmpeg");
+        }
+    }
+
+    @Test
+    void parsesRangesAndSingleCpus() {
+        BitSet cpus = CoreBudgetManager.parseCpuList("8-11,14, 16-17\n");
+
+        assertThat(cpus.stream().toArray()).containsExactly(8, 9, 10, 11, 14, 16, 17);
+    }
+
+    @Test
+    void parsesASingleCpu() {
+        assertThat(CoreBudgetManager.parseCpuList("3").stream().toArray()).containsExactly(3);
+    }
+
+    @Test
+    void rejectsMalformedLists() {
+        assertThat(CoreBudgetManager.parseCpuList("")).isNull();
+        assertThat(CoreBudgetManager.parseCpuList("4-2")).isNull();
+        assertThat(CoreBudgetManager.parseCpuList("0-1-2")).isNull();
+        assertThat(CoreBudgetManager.parseCpuList("a-b")).isNull();
+    }
+
+    @Test
+    void encodeWaitsForACoreRatherThanRunningUnpinned() throws Exception {
+        List<CoreBudgetManager.Allocation> running = new ArrayList<>();
+        for (String id : List.of("a", "b", "c", "d")) {
+            running.add(coreBudget.allocate(job(id), 1));
+        }
+
+        CompletableFuture<List<String>> waiting = CompletableFuture.supplyAsync(() -> {
+            JobCancellationRegistry.Handle own = cancellations.register(job("e"));
+            try (CoreBudgetManager.Allocation cores = coreBudget.allocate(job("e"), 1)) {
+                return coreBudget.wrap(List.of("ffmpeg"));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                cancellations.unregister(own);
+            }
+        });
+        Thread.sleep(300);
+        assertThat(waiting).isNotDone();
+
+        running.get(0).close();
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).containsExactly("taskset", "-c", "0", "ffmpeg");
+        running.subList(1, running.size()).forEach(CoreBudgetManager.Allocation::close);
+    }
+
+    private static TranscodingJob job(String id) {
+        return TranscodingJob.builder().id(id).build();
+    }
+}
@@ -0,0 +1,229 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.dto.WorkerInfo;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FairShareDispatcherTest {
+
+    private TranscodingJobRepository jobRepository;
+    private JobEventPublisher jobEventPublisher;
+    private BatchWindow batchWindow;
+    private WorkerRegistry workerRegistry;
+    private SimpleMeterRegistry meterRegistry;
+    private FairShareDispatcher dispatcher;
+    private final Map<TranscodingJob, Double> costs = new IdentityHashMap<>();
+    private final List<Object[]> pending = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jobRepository = mock(TranscodingJobRepository.class);
+        jobEventPublisher = mock(JobEventPublisher.class);
+        batchWindow = mock(BatchWindow.class);
+        workerRegistry = mock(WorkerRegistry.class);
+        meterRegistry = new SimpleMeterRegistry();
+        JobCostEstimator costEstimator = mock(JobCostEstimator.class);
+        when(costEstimator.weight(any())).thenAnswer(invocation -> costs.getOrDefault(invocation.getArgument(0), 1.0));
+        SchedulingPolicy schedulingPolicy = mock(SchedulingPolicy.class);
+        when(schedulingPolicy.key(any(), anyLong(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(batchWindow.allowance(anyLong())).thenReturn(Long.MAX_VALUE);
+        when(jobRepository.countUndispatchedByUser(anyBoolean())).thenReturn(pending);
+        when(jobRepository.markDispatched(anyString(), any())).thenReturn(1);
+
+        dispatcher = new FairShareDispatcher(jobRepository, jobEventPublisher, costEstimator, schedulingPolicy,
+                workerRegistry, batchWindow, redisTemplate, meterRegistry);
+        ReflectionTestUtils.setField(dispatcher, "workerId", "worker-1");
+        ReflectionTestUtils.setField(dispatcher, "enabled", true);
+        ReflectionTestUtils.setField(dispatcher, "maxInFlight", 3);
+        ReflectionTestUtils.setField(dispatcher, "inFlightTimeoutSeconds", 600L);
+        ReflectionTestUtils.setField(dispatcher, "quantumUnits", 1.0);
+        ReflectionTestUtils.setField(dispatcher, "weightsProperty", "");
+        ReflectionTestUtils.setField(dispatcher, "scanLimit", 500);
+        ReflectionTestUtils.setField(dispatcher, "leaderTtlMs", 15000L);
+        ReflectionTestUtils.setField(dispatcher, "metricsTopUsers", 2);
+        ReflectionTestUtils.setField(dispatcher, "waiterTimeoutMinutes", 5L);
+    }
+
+    @Test
+    void staleSweepLeavesJobsHeldByALiveWorker() {
+        LocalDateTime dispatchedAt = LocalDateTime.now().minusMinutes(10);
+        TranscodingJob held = stale("held", dispatchedAt, "worker-2");
+        TranscodingJob orphaned = stale("orphaned", dispatchedAt, "worker-9");
+        TranscodingJob lost = stale("lost", dispatchedAt, null);
+        lost.setWorkerId("worker-2");
+        when(workerRegistry.workers()).thenReturn(List.of(WorkerInfo.builder().workerId("worker-2").build()));
+        when(jobRepository.findDispatchedBefore(any())).thenReturn(List.of(held, orphaned, lost));
+        when(jobRepository.redispatch(anyString(), eq(dispatchedAt), any())).thenReturn(1);
+
+        dispatcher.redispatchStale();
+
+        // waiting in worker-2's admission queue is not stale; sent to worker-2 and never received is
+        assertThat(dispatchedIds()).containsExactly("orphaned", "lost");
+        verify(jobRepository, never()).redispatch(eq("held"), any(), any());
+    }
+
+    @Test
+    void expensiveJobWaitsUntilItsUserSavedEnoughDeficit() {
+        dispatcher.init();
+        queue("alice", job("a1", 1.0), job("a2", 1.0), job("a3", 1.0));
+        queue("bob", job("b1", 2.0));
+
+        dispatcher.dispatch();
+
+        // bob's two-unit job needs two rounds of quantum, alice sends one job per round meanwhile
+        assertThat(dispatchedIds()).containsExactly("a1", "a2", "b1");
+    }
+
+    @Test
+    void weightedUserGetsALargerQuantum() {
+        ReflectionTestUtils.setField(dispatcher, "weightsProperty", "bob:2");
+        dispatcher.init();
+        queue("alice", job("a1", 1.0), job("a2", 1.0), job("a3", 1.0));
+        queue("bob", job("b1", 2.0));
+
+        dispatcher.dispatch();
+
+        assertThat(dispatchedIds()).containsExactly("a1", "b1", "a2");
+    }
+
+    @Test
+    void onlyFreeInFlightSlotsAreFilled() {
+        dispatcher.init();
+        when(jobRepository.countDispatchedSince(any())).thenReturn(2L);
+        queue("alice", job("a1", 1.0), job("a2", 1.0));
+
+        dispatcher.dispatch();
+
+        assertThat(dispatchedIds()).containsExactly("a1");
+    }
+
+    @Test
+    void perUserGaugesAreCappedToTheTopUsers() {
+        dispatcher.init();
+        ReflectionTestUtils.setField(dispatcher, "maxInFlight", 0);
+        pending.add(new Object[] {"u1", 10L});
+        pending.add(new Object[] {"u2", 1L});
+        pending.add(new Object[] {"u3", 7L});
+        pending.add(new Object[] {"u4", 2L});
+
+        dispatcher.dispatch();
+
+        Map<String, Double> rows = meterRegistry.find("transcoding.fairshare.user.pending").gauges().stream()
+                .collect(Collectors.toMap(gauge -> gauge.getId().getTag("user"), Gauge::value));
+        assertThat(rows).containsOnly(Map.entry("u1", 10.0), Map.entry("u3", 7.0),
+                Map.entry(FairShareDispatcher.OTHER_USERS, 3.0));
+        assertThat(meterRegistry.find("transcoding.fairshare.user.share").gauges()).hasSize(3);
+    }
+
+    @Test
+    void dispatchesAreCountedPerQosClass() {
+        dispatcher.init();
+        TranscodingJob premium = job("a1", 1.0);
+        premium.setQosClass(TranscodingJob.QosClass.PREMIUM);
+        queue("alice", premium, job("a2", 2.0));
+
+        dispatcher.dispatch();
+
+        assertThat(meterRegistry.get("transcoding.fairshare.dispatched").tag("class", "premium").counter().count())
+                .isEqualTo(1.0);
+        assertThat(meterRegistry.get("transcoding.fairshare.units").tag("class", "standard").counter().count())
+                .isEqualTo(2.0);
+        assertThat(meterRegistry.find("transcoding.fairshare.dispatched").tagKeys("user").counters()).isEmpty();
+    }
+
+    @Test
+    void lowJobsOnlyTakeTheBatchAllowance() {
+        ReflectionTestUtils.setField(dispatcher, "quantumUnits", 3.0);
+        dispatcher.init();
+        when(batchWindow.allowance(anyLong())).thenReturn(1L);
+        queue("alice", job("l1", 1.0, TranscodingJob.JobPriority.LOW), job("l2", 1.0, TranscodingJob.JobPriority.LOW),
+                job("n3", 1.0));
+
+        dispatcher.dispatch();
+
+        // l2 stays for a later round, n3 is not held back by it
+        assertThat(dispatchedIds()).containsExactly("l1", "n3");
+    }
+
+    @Test
+    void withoutAllowanceLowJobsAreNotEvenLoaded() {
+        dispatcher.init();
+        when(batchWindow.allowance(anyLong())).thenReturn(0L);
+        when(jobRepository.countUndispatchedLow()).thenReturn(4L);
+        queue("alice", job("n1", 1.0));
+
+        dispatcher.dispatch();
+
+        verify(jobRepository).countUndispatchedByUser(false);
+        verify(jobRepository).findUndispatched(eq("alice"), eq(false), any());
+        assertThat(meterRegistry.get("transcoding.batch.held").gauge().value()).isEqualTo(4.0);
+    }
+
+    private void queue(String userId, TranscodingJob... jobs) {
+        pending.add(new Object[] {userId, (long) jobs.length});
+        when(jobRepository.findUndispatched(eq(userId), anyBoolean(), any())).thenReturn(List.of(jobs));
+    }
+
+    private TranscodingJob job(String id, double cost) {
+        return job(id, cost, TranscodingJob.JobPriority.NORMAL);
+    }
+
+    private TranscodingJob job(String id, double cost, TranscodingJob.JobPriority priority) {
+        TranscodingJob job = TranscodingJob.builder()
+                .id(id)
+                .priority(priority)
+                .createdAt(LocalDateTime.now().minusMinutes(10).plusSeconds(Integer.parseInt(id.substring(1))))
+                .build();
+        costs.put(job, cost);
+        return job;
+    }
+
+    private static TranscodingJob stale(String id, LocalDateTime dispatchedAt, String acceptedBy) {
+        return TranscodingJob.builder()
+                .id(id)
+                .status(TranscodingJob.TranscodingStatus.QUEUED)
+                .dispatchedAt(dispatchedAt)
+                .workerId(acceptedBy)
+                .acceptedAt(acceptedBy != null ? dispatchedAt.plusSeconds(1) : null)
+                .build();
+    }
+
+    private List<String> dispatchedIds() {
+        ArgumentCaptor<TranscodingJob> captor = ArgumentCaptor.forClass(TranscodingJob.class);
+        verify(jobEventPublisher, atLeastOnce()).dispatch(captor.capture());
+        return captor.getAllValues().stream().map(TranscodingJob::getId).toList();
+    }
+}
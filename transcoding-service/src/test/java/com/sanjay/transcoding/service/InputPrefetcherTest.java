@@ -0,0 +1,95 @@
+package com.sanjay.transcoding.service;
+
+import io.minio.MinioClient;
+import io.minio.StatObjectResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InputPrefetcherTest {
+
+    private InputFileCache inputFileCache;
+    private MinioClient minioClient;
+    private InputPrefetcher prefetcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        inputFileCache = mock(InputFileCache.class);
+        minioClient = mock(MinioClient.class);
+        JobPipeline pipeline = mock(JobPipeline.class);
+        when(pipeline.run(eq(JobPipeline.Stage.FETCH), any()))
+                .thenAnswer(invocation -> invocation.<JobPipeline.StageTask<?>>getArgument(1).call());
+        when(inputFileCache.isEnabled()).thenReturn(true);
+        prefetcher = new InputPrefetcher(inputFileCache, minioClient, pipeline);
+        ReflectionTestUtils.setField(prefetcher, "prefetchEnabled", true);
+        ReflectionTestUtils.setField(prefetcher, "lookahead", 2);
+        ReflectionTestUtils.setField(prefetcher, "maxBytes", 1000L);
+        ReflectionTestUtils.setField(prefetcher, "inputBucketName", "video-files");
+    }
+
+    @Test
+    void failedPrefetchIsTriedOnceMore() throws Exception {
+        StatObjectResponse stat = mock(StatObjectResponse.class);
+        when(stat.size()).thenReturn(100L);
+        when(minioClient.statObject(any())).thenThrow(new IOException("connection reset")).thenReturn(stat);
+        InputFileCache.Lease lease = mock(InputFileCache.Lease.class);
+        when(inputFileCache.acquire("video-files", "in.mp4")).thenReturn(lease);
+
+        prefetcher.accepted("job-1", "in.mp4", 1);
+
+        verify(inputFileCache, timeout(5000)).acquire("video-files", "in.mp4");
+        verify(minioClient, times(2)).statObject(any());
+        assertThat(claimWhenReady("job-1")).isSameAs(lease);
+    }
+
+    @Test
+    void prefetchIsNotRetriedTwice() throws Exception {
+        when(minioClient.statObject(any())).thenThrow(new IOException("connection reset"));
+
+        prefetcher.accepted("job-1", "in.mp4", 1);
+
+        verify(minioClient, timeout(5000).times(2)).statObject(any());
+        Thread.sleep(200);
+        verify(minioClient, times(2)).statObject(any());
+        verify(inputFileCache, times(0)).acquire(anyString(), anyString());
+        assertThat(prefetcher.claim("job-1")).isNull();
+    }
+
+    @Test
+    void discardedJobGivesItsPrefetchedInputBack() throws Exception {
+        StatObjectResponse stat = mock(StatObjectResponse.class);
+        when(stat.size()).thenReturn(1000L);
+        when(minioClient.statObject(any())).thenReturn(stat);
+        InputFileCache.Lease lease = mock(InputFileCache.Lease.class);
+        when(inputFileCache.acquire(anyString(), anyString())).thenReturn(lease);
+        prefetcher.accepted("job-1", "a.mp4", 1);
+        verify(inputFileCache, timeout(5000)).acquire("video-files", "a.mp4");
+        Thread.sleep(100);
+
+        // never admitted, e.g. interrupted while queued
+        prefetcher.discard("job-1");
+
+        verify(lease).close();
+        // its whole budget is free again for the next job
+        prefetcher.accepted("job-2", "b.mp4", 2);
+        verify(inputFileCache, timeout(5000)).acquire("video-files", "b.mp4");
+    }
+
+    private InputFileCache.Lease claimWhenReady(String jobId) throws InterruptedException {
+        // the lease is attached right after the download returns
+        Thread.sleep(100);
+        return prefetcher.claim(jobId);
+    }
+}
@@ -0,0 +1,130 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JobAdmissionQueueTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private SimpleMeterRegistry meterRegistry;
+    private JobAdmissionQueue queue;
+    private final List<String> admitted = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        PrioritySchedulingPolicy policy = new PrioritySchedulingPolicy();
+        ReflectionTestUtils.setField(policy, "agingStepSeconds", 120L);
+        meterRegistry = new SimpleMeterRegistry();
+        queue = new JobAdmissionQueue(policy, meterRegistry);
+        ReflectionTestUtils.setField(queue, "maxConcurrentJobs", 1);
+        ReflectionTestUtils.setField(queue, "maxInFlightJobs", 1);
+        queue.init();
+    }
+
+    @Test
+    void higherPriorityIsAdmittedFirst() throws Exception {
+        occupyTheSlot();
+        waitFor(job("low", TranscodingJob.JobPriority.LOW), 0);
+        waitFor(job("urgent", TranscodingJob.JobPriority.URGENT), 0);
+        waitFor(job("normal", TranscodingJob.JobPriority.NORMAL), 0);
+        await(() -> queued() == 3);
+
+        releaseAll(3);
+
+        assertThat(admitted).containsExactly("urgent", "normal", "low");
+    }
+
+    @Test
+    void waitingLongEnoughOutranksAHigherPriority() throws Exception {
+        occupyTheSlot();
+        // LOW and URGENT are three aging steps, six minutes, apart
+        waitFor(job("low", TranscodingJob.JobPriority.LOW), 0);
+        waitFor(job("urgent-after-5m", TranscodingJob.JobPriority.URGENT), 5 * MINUTE);
+        waitFor(job("urgent-after-7m", TranscodingJob.JobPriority.URGENT), 7 * MINUTE);
+        await(() -> queued() == 3);
+
+        releaseAll(3);
+
+        assertThat(admitted).containsExactly("urgent-after-5m", "low", "urgent-after-7m");
+    }
+
+    @Test
+    void equalKeysAreAdmittedInArrivalOrder() throws Exception {
+        occupyTheSlot();
+        List<String> names = List.of("first", "second", "third");
+        for (int i = 0; i < names.size(); i++) {
+            int expected = i + 1;
+            waitFor(job(names.get(i), TranscodingJob.JobPriority.NORMAL), 0);
+            await(() -> queued() == expected);
+        }
+
+        releaseAll(3);
+
+        assertThat(admitted).containsExactlyElementsOf(names);
+    }
+
+    @Test
+    void waitingJobsAreCountedPerPriority() throws Exception {
+        occupyTheSlot();
+        waitFor(job("high", TranscodingJob.JobPriority.HIGH), 0);
+        await(() -> queued() == 1);
+
+        assertThat(meterRegistry.get("transcoding.queue.depth").tag("priority", "high").gauge().value())
+                .isEqualTo(1.0);
+        releaseAll(1);
+        assertThat(queued()).isZero();
+    }
+
+    private void occupyTheSlot() throws InterruptedException {
+        TranscodingJob job = job("running", TranscodingJob.JobPriority.NORMAL);
+        queue.acquire(job, queue.admissionKey(job, 0, null));
+    }
+
+    private void waitFor(TranscodingJob job, long acceptedAtMillis) {
+        long key = queue.admissionKey(job, acceptedAtMillis, null);
+        Thread.ofVirtual().start(() -> {
+            try {
+                queue.acquire(job, key);
+                admitted.add(job.getId());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void releaseAll(int count) throws InterruptedException {
+        for (int i = 1; i <= count; i++) {
+            int expected = i;
+            queue.release();
+            await(() -> admitted.size() == expected);
+        }
+    }
+
+    private double queued() {
+        return meterRegistry.find("transcoding.queue.depth").gauges().stream().mapToDouble(Gauge::value).sum();
+    }
+
+    private static TranscodingJob job(String id, TranscodingJob.JobPriority priority) {
+        return TranscodingJob.builder().id(id).priority(priority).build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
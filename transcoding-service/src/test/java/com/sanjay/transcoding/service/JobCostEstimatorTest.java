@@ -0,0 +1,82 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.RenditionOutput;
+import com.sanjay.common.entity.TranscodingJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class JobCostEstimatorTest {
+
+    private JobCostEstimator estimator;
+
+    @BeforeEach
+    void setUp() {
+        estimator = new JobCostEstimator();
+        ReflectionTestUtils.setField(estimator, "secondsPerUnitSecond", 0.5);
+        ReflectionTestUtils.setField(estimator, "gpuEnabled", false);
+    }
+
+    @Test
+    void unspecifiedJobIsA1080p30x264Encode() {
+        assertThat(estimator.weight(TranscodingJob.builder().build())).isCloseTo(1.15, within(1e-9));
+    }
+
+    @Test
+    void weightScalesWithPixelRateAndCodec() {
+        TranscodingJob hevc4k = TranscodingJob.builder().videoCodec("libx265").resolution("3840x2160").build();
+        TranscodingJob x264at60 = TranscodingJob.builder().videoCodec("libx264").resolution("1920x1080")
+                .frameRate(60).build();
+
+        assertThat(estimator.weight(hevc4k)).isCloseTo(0.15 + 4 * 4, within(1e-9));
+        assertThat(estimator.weight(x264at60)).isCloseTo(0.15 + 2, within(1e-9));
+    }
+
+    @Test
+    void tinyEncodesWeighAtLeastTheMinimum() {
+        TranscodingJob tiny = TranscodingJob.builder().resolution("256x144").build();
+
+        assertThat(estimator.weight(tiny)).isEqualTo(0.25);
+    }
+
+    @Test
+    void ladderPaysForOneDecodeAndEveryRendition() {
+        TranscodingJob ladder = TranscodingJob.builder()
+                .jobType(TranscodingJob.JobType.LADDER)
+                .renditions(List.of(
+                        RenditionOutput.builder().resolution("1920x1080").build(),
+                        RenditionOutput.builder().resolution("1280x720").build()))
+                .build();
+
+        assertThat(estimator.weight(ladder)).isCloseTo(0.15 + 1 + 1280.0 * 720 / (1920 * 1080), within(1e-9));
+    }
+
+    @Test
+    void gpuEncodesOnlyChargeTheirCpuSide() {
+        TranscodingJob gpu = TranscodingJob.builder().videoCodec("libx265").processingMode("GPU").build();
+
+        assertThat(estimator.weight(gpu)).isCloseTo(0.15 + 4, within(1e-9));
+        ReflectionTestUtils.setField(estimator, "gpuEnabled", true);
+        assertThat(estimator.weight(gpu)).isCloseTo(0.15 + 0.25, within(1e-9));
+    }
+
+    @Test
+    void unknownCodecAndResolutionFallBackToTheReference() {
+        TranscodingJob job = TranscodingJob.builder().videoCodec("prores").resolution("hd").build();
+
+        assertThat(estimator.weight(job)).isCloseTo(1.15, within(1e-9));
+    }
+
+    @Test
+    void expectedSecondsNeedTheInputDuration() {
+        TranscodingJob job = TranscodingJob.builder().build();
+
+        assertThat(estimator.estimateSeconds(job, null)).isNull();
+        assertThat(estimator.estimateSeconds(job, 600.0)).isEqualTo(345L);
+    }
+}
@@ -0,0 +1,139 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JobLeaseManagerTest {
+
+    private TranscodingJobRepository jobRepository;
+    private JobEventPublisher jobEventPublisher;
+    private ApplicationEventPublisher applicationEventPublisher;
+    private JobLeaseManager leases;
+
+    @BeforeEach
+    void setUp() {
+        jobRepository = mock(TranscodingJobRepository.class);
+        jobEventPublisher = mock(JobEventPublisher.class);
+        applicationEventPublisher = mock(ApplicationEventPublisher.class);
+        leases = new JobLeaseManager(jobRepository, jobEventPublisher, mock(JobCancellationRegistry.class),
+                applicationEventPublisher, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(leases, "workerId", "worker-1");
+        ReflectionTestUtils.setField(leases, "ttlSeconds", 30L);
+        ReflectionTestUtils.setField(leases, "maxAttempts", 3);
+        leases.init();
+    }
+
+    @Test
+    void expiredLeaseIsRequeuedAndItsLeadReleased() {
+        TranscodingJob job = expired(1);
+        when(jobRepository.findExpiredLeases(any())).thenReturn(List.of(job));
+        when(jobRepository.requeueExpired(eq("job-1"), eq(7L), any())).thenReturn(1);
+
+        leases.reapExpired();
+
+        assertThat(job.getStatus()).isEqualTo(TranscodingJob.TranscodingStatus.QUEUED);
+        verify(applicationEventPublisher).publishEvent(new JobRequeuedEvent(job));
+        verify(jobEventPublisher).dispatch(job);
+    }
+
+    @Test
+    void expiredLeaseOnLastAttemptFailsTheJob() {
+        TranscodingJob job = expired(3);
+        when(jobRepository.findExpiredLeases(any())).thenReturn(List.of(job));
+        when(jobRepository.failExpired(eq("job-1"), eq(7L), anyString(), any())).thenReturn(1);
+
+        leases.reapExpired();
+
+        assertThat(job.getStatus()).isEqualTo(TranscodingJob.TranscodingStatus.FAILED);
+        verify(jobEventPublisher).publishStatus(job, "FAILED");
+        verify(jobEventPublisher, never()).dispatch(any());
+    }
+
+    @Test
+    void expiredStitchIsRetriedHereInsteadOfRequeued() {
+        TranscodingJob job = expired(1);
+        job.setJobType(TranscodingJob.JobType.SEGMENTED);
+        when(jobRepository.findExpiredLeases(any())).thenReturn(List.of(job));
+        when(jobRepository.reclaimStitch(eq("job-1"), eq(7L), eq("worker-1"), any(), any())).thenReturn(1);
+
+        leases.reapExpired();
+
+        verify(applicationEventPublisher).publishEvent(new SegmentStitchRetryEvent(job));
+        verify(jobRepository, never()).requeueExpired(anyString(), any(), any());
+        verify(jobEventPublisher, never()).dispatch(any());
+    }
+
+    @Test
+    void jobReapedByAnotherWorkerIsLeftAlone() {
+        TranscodingJob job = expired(1);
+        when(jobRepository.findExpiredLeases(any())).thenReturn(List.of(job));
+
+        leases.reapExpired();
+
+        verify(jobEventPublisher, never()).dispatch(any());
+        verify(applicationEventPublisher, never()).publishEvent(any(Object.class));
+    }
+
+    @Test
+    void claimTakesTheNewLeaseToken() {
+        TranscodingJob job = TranscodingJob.builder().id("job-1").build();
+        when(jobRepository.claim(eq("job-1"), eq("worker-1"), any(), any())).thenReturn(1);
+        when(jobRepository.findLeaseToken("job-1", "worker-1")).thenReturn(8L);
+
+        assertThat(leases.claim(job)).isTrue();
+        assertThat(job.getLeaseToken()).isEqualTo(8L);
+        assertThat(leases.isHeld("job-1")).isTrue();
+    }
+
+    @Test
+    void lostClaimDropsTheJob() {
+        TranscodingJob job = TranscodingJob.builder().id("job-1").build();
+
+        assertThat(leases.claim(job)).isFalse();
+        assertThat(leases.isHeld("job-1")).isFalse();
+    }
+
+    @Test
+    void saveWithAStaleTokenIsRefused() {
+        TranscodingJob job = TranscodingJob.builder().id("job-1").build();
+        when(jobRepository.claim(eq("job-1"), eq("worker-1"), any(), any())).thenReturn(1);
+        when(jobRepository.findLeaseToken("job-1", "worker-1")).thenReturn(8L);
+        leases.claim(job);
+        when(jobRepository.findByIdForUpdate("job-1")).thenReturn(Optional.of(TranscodingJob.builder()
+                .id("job-1").leaseToken(9L).status(TranscodingJob.TranscodingStatus.PROCESSING).build()));
+
+        assertThatThrownBy(() -> leases.save(job)).isInstanceOf(JobLeaseManager.LeaseLostException.class);
+        assertThat(leases.isHeld("job-1")).isFalse();
+        verify(jobRepository, never()).save(any());
+    }
+
+    private static TranscodingJob expired(int attempts) {
+        return TranscodingJob.builder()
+                .id("job-1")
+                .workerId("worker-2")
+                .status(TranscodingJob.TranscodingStatus.PROCESSING)
+                .leaseToken(7L)
+                .leaseExpiresAt(LocalDateTime.now().minusMinutes(1))
+                .attempts(attempts)
+                .build();
+    }
+}
@@ -0,0 +1,86 @@
+package com.sanjay.transcoding.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class JobPipelineTest {
+
+    private JobPipeline pipeline;
+    private final List<String> started = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        pipeline = new JobPipeline(new SimpleMeterRegistry(), mock(JobCancellationRegistry.class));
+        ReflectionTestUtils.setField(pipeline, "encodeUnits", 2.0);
+        ReflectionTestUtils.setField(pipeline, "fetchConcurrency", 1);
+        ReflectionTestUtils.setField(pipeline, "probeConcurrency", 1);
+        ReflectionTestUtils.setField(pipeline, "uploadConcurrency", 1);
+        ReflectionTestUtils.setField(pipeline, "finalizeConcurrency", 1);
+        ReflectionTestUtils.setField(pipeline, "reservedEncodeShare", 0.5);
+        pipeline.init();
+    }
+
+    @Test
+    void standardEncodesUseTheReservedShareWhileNoPremiumWaits() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        encode("a", false, done);
+        encode("b", false, done);
+
+        await(() -> started.size() == 2);
+        assertThat(pipeline.active(JobPipeline.Stage.ENCODE)).isEqualTo(2);
+        done.countDown();
+    }
+
+    @Test
+    void waitingPremiumEncodeGetsTheNextFreedUnit() throws Exception {
+        CountDownLatch aDone = new CountDownLatch(1);
+        CountDownLatch rest = new CountDownLatch(1);
+        encode("a", false, aDone);
+        encode("b", false, rest);
+        await(() -> started.size() == 2);
+
+        encode("premium", true, rest);
+        await(() -> pipeline.waiting(JobPipeline.Stage.ENCODE) == 1);
+        encode("c", false, rest);
+        Thread.sleep(100);
+
+        aDone.countDown();
+        await(() -> started.size() == 3);
+        // c arrived while the premium encode waited, so it may not take the unit a freed
+        assertThat(started).containsExactly("a", "b", "premium");
+        rest.countDown();
+        await(() -> started.size() == 4);
+    }
+
+    private void encode(String name, boolean reserved, CountDownLatch release) {
+        Thread.ofVirtual().start(() -> {
+            try {
+                pipeline.run(JobPipeline.Stage.ENCODE, 1.0, reserved, () -> {
+                    started.add(name);
+                    return release.await(10, TimeUnit.SECONDS);
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.sanjay.transcoding.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ProgressTrackerTest {
+
+    private TranscodingJobRepository jobRepository;
+    private JobCancellationRegistry cancellations;
+    private ProgressTracker tracker;
+    private TranscodingJob job;
+    private JobCancellationRegistry.Handle handle;
+
+    @BeforeEach
+    void setUp() {
+        jobRepository = mock(TranscodingJobRepository.class);
+        cancellations = new JobCancellationRegistry(new ObjectMapper(), new SimpleMeterRegistry());
+        tracker = new ProgressTracker(jobRepository, cancellations, new SimpleMeterRegistry());
+        tracker.init();
+        job = TranscodingJob.builder().id("job-1").leaseToken(3L).progressPercentage(5).build();
+        handle = cancellations.register(job);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cancellations.unregister(handle);
+    }
+
+    @Test
+    void progressBlockMovesTheEncodeBand() {
+        tracker.begin(job, 100.0);
+        ProgressTracker.Listener listener = tracker.listener();
+
+        feed(listener, "frame=500", "fps=50.0", "out_time_us=50000000", "speed=2.0x", "progress=continue");
+
+        // halfway through the 15..85 band
+        assertThat(job.getProgressPercentage()).isEqualTo(50);
+        assertThat(job.getFps()).isEqualTo(50.0);
+        assertThat(job.getSpeed()).isEqualTo(2.0);
+        assertThat(job.getEtaSeconds()).isEqualTo(25L);
+    }
+
+    @Test
+    void durationFromTheHeaderIsUsedWithoutAProbe() {
+        tracker.begin(job, null);
+        ProgressTracker.Listener listener = tracker.listener();
+
+        assertThat(listener.accept("  Duration: 00:01:40.00, start: 0.000000, bitrate: 1000 kb/s")).isFalse();
+        feed(listener, "out_time_ms=25000000", "progress=continue");
+
+        assertThat(job.getProgressPercentage()).isEqualTo(32);
+    }
+
+    @Test
+    void notAvailableValuesAreIgnored() {
+        tracker.begin(job, 100.0);
+        ProgressTracker.Listener listener = tracker.listener();
+
+        feed(listener, "fps=N/A", "speed=N/A", "out_time_us=N/A", "progress=continue");
+
+        assertThat(job.getProgressPercentage()).isEqualTo(15);
+        assertThat(tracker.totalFps()).isZero();
+    }
+
+    @Test
+    void progressNeverMovesBackwards() {
+        tracker.begin(job, 100.0);
+        feed(tracker.listener(), "out_time_us=80000000", "progress=continue");
+
+        // a CPU fallback starts over
+        feed(tracker.listener(), "out_time_us=10000000", "progress=continue");
+
+        assertThat(job.getProgressPercentage()).isEqualTo(71);
+    }
+
+    @Test
+    void totalFpsSumsParallelEncodesOfOneJob() {
+        // segmented jobs are not followed with begin but their segment encodes still count
+        tracker.set(job, ProgressTracker.ENCODE_FROM_PERCENT);
+        ProgressTracker.Listener first = tracker.listener();
+        ProgressTracker.Listener second = tracker.listener();
+
+        feed(first, "fps=40", "progress=continue");
+        feed(second, "fps=60", "progress=continue");
+        assertThat(tracker.totalFps()).isEqualTo(100.0);
+        assertThat(job.getProgressPercentage()).isEqualTo(15);
+
+        second.close();
+        assertThat(tracker.totalFps()).isEqualTo(40.0);
+        feed(first, "fps=40", "progress=end");
+        assertThat(tracker.totalFps()).isZero();
+    }
+
+    @Test
+    void logLinesAreNotProgress() {
+        ProgressTracker.Listener listener = tracker.listener();
+
+        assertThat(listener.accept("Stream #0:0: Video: h264")).isFalse();
+        assertThat(listener.accept("[libx264 @ 0x55] using cpu capabilities: x=1")).isFalse();
+        assertThat(listener.accept("bitrate=1000.0kbits/s")).isTrue();
+    }
+
+    @Test
+    void flushWritesEachDirtyJobOnce() {
+        tracker.begin(job, 100.0);
+        feed(tracker.listener(), "out_time_us=50000000", "progress=continue", "out_time_us=60000000",
+                "progress=continue");
+
+        tracker.flush();
+        tracker.flush();
+
+        verify(jobRepository, times(1)).updateEncodeProgress(anyString(), anyLong(), anyInt(), any(), any(), any());
+    }
+
+    @Test
+    void untrackedJobsAreNotWritten() {
+        feed(tracker.listener(), "out_time_us=50000000", "progress=continue");
+
+        tracker.flush();
+
+        verify(jobRepository, never()).updateEncodeProgress(anyString(), anyLong(), anyInt(), any(), any(), any());
+    }
+
+    private static void feed(ProgressTracker.Listener listener, String... lines) {
+        for (String line : lines) {
+            listener.accept(line);
+        }
+    }
+}
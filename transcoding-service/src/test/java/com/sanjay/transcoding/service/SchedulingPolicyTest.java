@@ -0,0 +1,81 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.entity.TranscodingJob;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SchedulingPolicyTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    void fifoOrdersByAcceptance() {
+        SchedulingPolicy policy = new FifoSchedulingPolicy();
+
+        assertThat(policy.key(job(TranscodingJob.JobPriority.URGENT), NOW, null))
+                .isGreaterThan(policy.key(job(TranscodingJob.JobPriority.LOW), NOW - 1, null));
+        assertThat(policy.usesInputDuration()).isFalse();
+    }
+
+    @Test
+    void priorityCountsEachLevelAsOneAgingStep() {
+        PrioritySchedulingPolicy policy = new PrioritySchedulingPolicy();
+        ReflectionTestUtils.setField(policy, "agingStepSeconds", 120L);
+
+        assertThat(policy.key(job(TranscodingJob.JobPriority.LOW), NOW, null)).isEqualTo(NOW);
+        assertThat(policy.key(job(TranscodingJob.JobPriority.HIGH), NOW, null)).isEqualTo(NOW - 240_000);
+        // no priority is NORMAL
+        assertThat(policy.key(TranscodingJob.builder().build(), NOW, null)).isEqualTo(NOW - 120_000);
+    }
+
+    @Test
+    void edfOrdersByDeadlineAndGivesOthersDefaultSlack() {
+        EarliestDeadlineFirstPolicy policy = new EarliestDeadlineFirstPolicy();
+        ReflectionTestUtils.setField(policy, "defaultSlackSeconds", 3600L);
+        LocalDateTime deadline = LocalDateTime.of(2026, 1, 1, 12, 0);
+        TranscodingJob withDeadline = job(TranscodingJob.JobPriority.NORMAL);
+        withDeadline.setDeadline(deadline);
+
+        assertThat(policy.key(withDeadline, NOW, null))
+                .isEqualTo(deadline.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        assertThat(policy.key(job(TranscodingJob.JobPriority.NORMAL), NOW, null)).isEqualTo(NOW + 3_600_000);
+    }
+
+    @Test
+    void sjfAddsTheExpectedEncodeTime() {
+        JobCostEstimator costEstimator = mock(JobCostEstimator.class);
+        ShortestJobFirstPolicy policy = new ShortestJobFirstPolicy(costEstimator);
+        ReflectionTestUtils.setField(policy, "unknownDurationSeconds", 600.0);
+        TranscodingJob job = job(TranscodingJob.JobPriority.NORMAL);
+        when(costEstimator.estimateSeconds(job, 120.0)).thenReturn(60L);
+        when(costEstimator.estimateSeconds(job, 600.0)).thenReturn(300L);
+
+        assertThat(policy.usesInputDuration()).isTrue();
+        assertThat(policy.key(job, NOW, 120.0)).isEqualTo(NOW + 60_000);
+        // unprobed inputs are assumed to be of the configured length
+        assertThat(policy.key(job, NOW, null)).isEqualTo(NOW + 300_000);
+    }
+
+    @Test
+    void sjfPrefersAnEstimateStoredOnTheJob() {
+        JobCostEstimator costEstimator = mock(JobCostEstimator.class);
+        when(costEstimator.estimateSeconds(any(), any())).thenReturn(999L);
+        ShortestJobFirstPolicy policy = new ShortestJobFirstPolicy(costEstimator);
+        TranscodingJob job = job(TranscodingJob.JobPriority.NORMAL);
+        job.setEstimatedDuration(30L);
+
+        assertThat(policy.key(job, NOW, 120.0)).isEqualTo(NOW + 30_000);
+    }
+
+    private static TranscodingJob job(TranscodingJob.JobPriority priority) {
+        return TranscodingJob.builder().priority(priority).build();
+    }
+}
@@ -0,0 +1,185 @@
+package com.sanjay.transcoding.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sanjay.common.dto.TranscodingJobDto;
+import com.sanjay.common.entity.TranscodingJob;
+import com.sanjay.transcoding.repository.TranscodingJobRepository;
+import io.minio.GetObjectResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.minio.MinioClient;
+import okhttp3.Headers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SegmentedTranscodingServiceTest {
+
+    @TempDir
+    Path tempDirectory;
+
+    private TranscodingJobRepository jobRepository;
+    private FFmpegService ffmpegService;
+    private MinioClient minioClient;
+    private JobEventPublisher jobEventPublisher;
+    private ProgressTracker progressTracker;
+    private JobLeaseManager leases;
+    private SegmentedTranscodingService service;
+
+    @BeforeEach
+    void setUp() {
+        jobRepository = mock(TranscodingJobRepository.class);
+        ffmpegService = mock(FFmpegService.class);
+        minioClient = mock(MinioClient.class);
+        jobEventPublisher = mock(JobEventPublisher.class);
+        progressTracker = mock(ProgressTracker.class);
+        leases = mock(JobLeaseManager.class);
+        JobCancellationRegistry cancellations =
+                new JobCancellationRegistry(new ObjectMapper(), new SimpleMeterRegistry());
+        JobPipeline pipeline = new JobPipeline(new SimpleMeterRegistry(), cancellations);
+        ReflectionTestUtils.setField(pipeline, "encodeUnits", 4.0);
+        ReflectionTestUtils.setField(pipeline, "fetchConcurrency", 1);
+        ReflectionTestUtils.setField(pipeline, "probeConcurrency", 1);
+        ReflectionTestUtils.setField(pipeline, "uploadConcurrency", 1);
+        ReflectionTestUtils.setField(pipeline, "finalizeConcurrency", 1);
+        pipeline.init();
+        service = new SegmentedTranscodingService(jobRepository, ffmpegService, minioClient, jobEventPublisher,
+                mock(ParallelObjectUploader.class), cancellations, mock(QosPolicy.class), progressTracker, leases,
+                pipeline, mock(CoreBudgetManager.class));
+        ReflectionTestUtils.setField(service, "localParallelism", 2);
+        ReflectionTestUtils.setField(service, "segmentDurationSeconds", 300);
+        ReflectionTestUtils.setField(service, "tempDirectory", tempDirectory.toString());
+        ReflectionTestUtils.setField(service, "inputBucketName", "video-files");
+        ReflectionTestUtils.setField(service, "outputBucketName", "transcoded-files");
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void localSegmentsAreMuxedWithAudioEncodedOnce() {
+        TranscodingJob job = TranscodingJob.builder().id("job-1").leaseToken(3L).build();
+        File input = tempDirectory.resolve("input.mp4").toFile();
+        List<File> segments = List.of(new File("segment_00000.mkv"), new File("segment_00001.mkv"));
+        when(ffmpegService.splitAtKeyframes(eq(input), any(), eq(300))).thenReturn(segments);
+        when(ffmpegService.hasAudio(input)).thenReturn(true);
+        when(ffmpegService.encodeAudio(eq(input), any(), any())).thenReturn(true);
+        when(ffmpegService.transcode(any(), any(), any())).thenReturn(true);
+        when(ffmpegService.concat(anyList(), any(), any(), eq("mp4"))).thenReturn(true);
+
+        boolean done = service.transcodeLocally(job, input, tempDirectory.resolve("out.mp4").toFile(),
+                TranscodingJobDto.OutputSettingsDto.builder().audioCodec("aac").outputFormat("mp4").build());
+
+        assertThat(done).isTrue();
+        verify(ffmpegService).encodeAudio(eq(input), eq(audioFile()), any());
+        verify(ffmpegService).concat(anyList(), eq(audioFile()), any(), eq("mp4"));
+        // progress goes through the tracker, which writes it fenced on the lease token
+        verify(progressTracker).set(job, 50);
+        verify(progressTracker).set(job, 85);
+        verify(jobRepository, never()).advanceSegmentedProgress(anyString(), any(), anyInt());
+    }
+
+    @Test
+    void inputWithoutAudioIsStitchedFromVideoAlone() {
+        TranscodingJob job = TranscodingJob.builder().id("job-1").build();
+        File input = tempDirectory.resolve("input.mp4").toFile();
+        when(ffmpegService.splitAtKeyframes(eq(input), any(), eq(300))).thenReturn(List.of(new File("segment_00000.mkv")));
+        when(ffmpegService.transcode(any(), any(), any())).thenReturn(true);
+        when(ffmpegService.concat(anyList(), isNull(), any(), any())).thenReturn(true);
+
+        assertThat(service.transcodeLocally(job, input, tempDirectory.resolve("out.mp4").toFile(),
+                TranscodingJobDto.OutputSettingsDto.builder().build())).isTrue();
+        verify(ffmpegService, never()).encodeAudio(any(), any(), any());
+    }
+
+    @Test
+    void finishedSegmentAdvancesItsParentOnItsToken() {
+        when(jobRepository.countByParentJobIdAndStatus("parent", TranscodingJob.TranscodingStatus.COMPLETED))
+                .thenReturn(1L);
+        when(jobRepository.findById("parent")).thenReturn(Optional.of(parent()));
+
+        service.onJobFinished(new JobFinishedEvent(segment(TranscodingJob.TranscodingStatus.COMPLETED), "COMPLETED"));
+
+        verify(jobRepository).advanceSegmentedProgress("parent", 4L, 39);
+        verify(leases, never()).claimStitch(anyString());
+    }
+
+    @Test
+    void cancelledSegmentIsNotRolledUp() {
+        service.onJobFinished(new JobFinishedEvent(segment(TranscodingJob.TranscodingStatus.CANCELLED), "CANCELLED"));
+
+        verify(jobRepository, never()).failIfProcessing(anyString(), anyString(), any());
+        verify(jobRepository, never()).countByParentJobIdAndStatus(anyString(), any());
+    }
+
+    @Test
+    void stitchOfACancelledParentIsNotCompleted() throws Exception {
+        TranscodingJob parent = parent();
+        when(jobRepository.countByParentJobIdAndStatus("parent", TranscodingJob.TranscodingStatus.COMPLETED))
+                .thenReturn(3L);
+        when(leases.claimStitch("parent")).thenReturn(true);
+        when(jobRepository.findById("parent")).thenReturn(Optional.of(parent));
+        when(jobRepository.findByParentJobIdOrderBySegmentIndexAsc("parent")).thenReturn(List.of());
+        when(minioClient.getObject(any())).thenReturn(new GetObjectResponse(Headers.of(), "video-files", "",
+                "segments/parent/audio.mka", new ByteArrayInputStream(new byte[0])));
+        when(ffmpegService.concat(anyList(), any(), any(), any())).thenReturn(true);
+        doThrow(new JobLeaseManager.LeaseLostException("parent")).when(leases).save(parent);
+
+        service.onJobFinished(new JobFinishedEvent(segment(TranscodingJob.TranscodingStatus.COMPLETED), "COMPLETED"));
+
+        verify(leases, timeout(5000)).release("parent");
+        verify(leases).adopt(parent);
+        verify(jobEventPublisher, never()).publishStatus(any(), anyString());
+        verify(jobRepository, never()).save(any());
+    }
+
+    private File audioFile() {
+        return new File(new File(tempDirectory.toFile(), "segments_job-1"), "audio.mka");
+    }
+
+    private static TranscodingJob parent() {
+        return TranscodingJob.builder()
+                .id("parent")
+                .jobType(TranscodingJob.JobType.SEGMENTED)
+                .status(TranscodingJob.TranscodingStatus.PROCESSING)
+                .leaseToken(4L)
+                .outputFilename("out.mp4")
+                .outputFormat("mp4")
+                .build();
+    }
+
+    private static TranscodingJob segment(TranscodingJob.TranscodingStatus status) {
+        return TranscodingJob.builder()
+                .id("segment-1")
+                .jobType(TranscodingJob.JobType.SEGMENT)
+                .parentJobId("parent")
+                .segmentIndex(0)
+                .segmentCount(3)
+                .status(status)
+                .build();
+    }
+}
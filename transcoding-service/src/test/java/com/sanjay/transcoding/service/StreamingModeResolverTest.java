@@ -0,0 +1,128 @@
+package com.sanjay.transcoding.service;
+
+import com.sanjay.common.dto.TranscodingJobDto;
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.MinioClient;
+import okhttp3.Headers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StreamingModeResolverTest {
+
+    private static final TranscodingJobDto.OutputSettingsDto SETTINGS =
+            TranscodingJobDto.OutputSettingsDto.builder().outputFormat("mkv").build();
+
+    private MinioClient minioClient;
+    private FFmpegService ffmpegService;
+    private StreamingModeResolver resolver;
+    private byte[] object = new byte[0];
+
+    @BeforeEach
+    void setUp() throws Exception {
+        minioClient = mock(MinioClient.class);
+        ffmpegService = mock(FFmpegService.class);
+        when(ffmpegService.isStreamingCandidate(any())).thenReturn(true);
+        // serves the requested range of the object, like a ranged GET
+        when(minioClient.getObject(any(GetObjectArgs.class))).thenAnswer(invocation -> {
+            GetObjectArgs args = invocation.getArgument(0);
+            int from = (int) Math.min(object.length, args.offset());
+            int to = (int) Math.min(object.length, args.offset() + args.length());
+            return new GetObjectResponse(Headers.of(), args.bucket(), "", args.object(),
+                    new ByteArrayInputStream(Arrays.copyOfRange(object, from, to)));
+        });
+        resolver = new StreamingModeResolver(minioClient, ffmpegService);
+        ReflectionTestUtils.setField(resolver, "streamingEnabled", true);
+    }
+
+    @Test
+    void moovBeforeMdatStreams() {
+        object = file(box("ftyp", 24), box("moov", 1000), box("mdat", 5000));
+
+        assertThat(resolver.canStream("bucket", "input.mp4", SETTINGS)).isTrue();
+    }
+
+    @Test
+    void moovAfterMdatNeedsASeekableInput() {
+        object = file(box("ftyp", 24), box("mdat", 5000), box("moov", 1000));
+
+        assertThat(resolver.canStream("bucket", "input.MOV", SETTINGS)).isFalse();
+    }
+
+    @Test
+    void largeSizeBoxesAreSkipped() {
+        object = file(box("ftyp", 24), largeBox("free", 40), box("moov", 1000));
+
+        assertThat(resolver.canStream("bucket", "input.m4v", SETTINGS)).isTrue();
+    }
+
+    @Test
+    void truncatedOrMalformedLayoutsDoNotStream() {
+        object = file(box("ftyp", 24));
+        assertThat(resolver.canStream("bucket", "input.mp4", SETTINGS)).isFalse();
+
+        // a zero size runs to the end of the file, there is nothing after it to find
+        object = file(box("ftyp", 24), box("free", 0), box("moov", 1000));
+        assertThat(resolver.canStream("bucket", "input.mp4", SETTINGS)).isFalse();
+    }
+
+    @Test
+    void sequentialContainersStreamWithoutInspection() throws Exception {
+        assertThat(resolver.canStream("bucket", "input.mkv", SETTINGS)).isTrue();
+        assertThat(resolver.canStream("bucket", "input.ts", SETTINGS)).isTrue();
+        assertThat(resolver.canStream("bucket", "input.avi", SETTINGS)).isFalse();
+        verify(minioClient, never()).getObject(any(GetObjectArgs.class));
+    }
+
+    @Test
+    void outputsThatCannotBeStreamedAreRejected() {
+        object = file(box("ftyp", 24), box("moov", 1000));
+        when(ffmpegService.isStreamingCandidate(any())).thenReturn(false);
+
+        assertThat(resolver.canStream("bucket", "input.mp4", SETTINGS)).isFalse();
+    }
+
+    @Test
+    void disabledStreamingNeverStreams() {
+        ReflectionTestUtils.setField(resolver, "streamingEnabled", false);
+
+        assertThat(resolver.canStream("bucket", "input.mkv", SETTINGS)).isFalse();
+    }
+
+    private static byte[] box(String type, int size) {
+        ByteBuffer box = ByteBuffer.allocate(Math.max(size, 8));
+        box.putInt(size);
+        box.put(type.getBytes(StandardCharsets.US_ASCII));
+        return box.array();
+    }
+
+    private static byte[] largeBox(String type, int size) {
+        ByteBuffer box = ByteBuffer.allocate(size);
+        box.putInt(1);
+        box.put(type.getBytes(StandardCharsets.US_ASCII));
+        box.putLong(size);
+        return box.array();
+    }
+
+    private static byte[] file(byte[]... boxes) {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (byte[] box : boxes) {
+            file.writeBytes(box);
+        }
+        return file.toByteArray();
+    }
+}
@@ -0,0 +1,90 @@
+package com.sanjay.transcoding.service;
+
+import io.minio.MinioClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TranscodeResultCacheTest {
+
+    private StringRedisTemplate redisTemplate;
+    private ValueOperations<String, String> values;
+    private ListOperations<String, String> lists;
+    private TranscodeResultCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        values = mock(ValueOperations.class);
+        lists = mock(ListOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(redisTemplate.opsForList()).thenReturn(lists);
+        cache = new TranscodeResultCache(redisTemplate, mock(MinioClient.class));
+        ReflectionTestUtils.setField(cache, "inflightTtlMinutes", 360L);
+    }
+
+    @Test
+    void firstJobLeads() {
+        when(values.setIfAbsent(eq("transcode:inflight:key"), eq("job-1"), any(Duration.class))).thenReturn(true);
+
+        assertThat(cache.tryLead("key", "job-1")).isTrue();
+        verify(values).set(eq("transcode:leading:job-1"), eq("key"), any(Duration.class));
+    }
+
+    @Test
+    void anotherJobDoesNotLead() {
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        when(values.get("transcode:inflight:key")).thenReturn("job-1");
+
+        assertThat(cache.tryLead("key", "job-2")).isFalse();
+        verify(values, never()).set(eq("transcode:leading:job-2"), anyString(), any(Duration.class));
+    }
+
+    @Test
+    void requeuedLeaderLeadsAgain() {
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        when(values.get("transcode:inflight:key")).thenReturn("job-1");
+
+        assertThat(cache.tryLead("key", "job-1")).isTrue();
+        verify(redisTemplate).expire(eq("transcode:inflight:key"), any(Duration.class));
+    }
+
+    @Test
+    void releaseLeadOfFindsTheKeyAndDrainsWaiters() {
+        when(values.get("transcode:leading:job-1")).thenReturn("key");
+        when(values.get("transcode:inflight:key")).thenReturn("job-1");
+        when(lists.leftPop("transcode:waiters:key")).thenReturn("job-2", "job-3", null);
+
+        assertThat(cache.releaseLeadOf("job-1")).containsExactly("job-2", "job-3");
+        verify(redisTemplate).delete("transcode:inflight:key");
+    }
+
+    @Test
+    void releaseLeadOfWithoutLeadIsEmpty() {
+        assertThat(cache.releaseLeadOf("job-1")).isEmpty();
+        verify(redisTemplate, never()).delete(anyString());
+    }
+
+    @Test
+    void redisFailureLetsJobsRun() {
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenThrow(new IllegalStateException("down"));
+
+        assertThat(cache.tryLead("key", "job-1")).isTrue();
+    }
+}
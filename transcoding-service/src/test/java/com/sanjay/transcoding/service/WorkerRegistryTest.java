@@ -0,0 +1,60 @@
+package com.sanjay.transcoding.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WorkerRegistryTest {
+
+    private static final int KEYS = 10_000;
+
+    @Test
+    void rendezvousSpreadsKeysEvenlyOverWorkers() {
+        List<String> workers = List.of("worker-1", "worker-2", "worker-3", "worker-4");
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(owner("input:" + UUID.randomUUID(), workers), 1, Integer::sum);
+        }
+
+        assertThat(counts).hasSize(workers.size());
+        assertThat(counts.values()).allSatisfy(count ->
+                assertThat(count).isBetween(KEYS / workers.size() * 8 / 10, KEYS / workers.size() * 12 / 10));
+    }
+
+    @Test
+    void addingAWorkerOnlyMovesItsShareOfKeys() {
+        List<String> before = List.of("worker-1", "worker-2", "worker-3", "worker-4");
+        List<String> after = List.of("worker-1", "worker-2", "worker-3", "worker-4", "worker-5");
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "input:" + UUID.randomUUID();
+            String owner = owner(key, after);
+            if (!owner.equals(owner(key, before))) {
+                // a key only ever moves to the new worker
+                assertThat(owner).isEqualTo("worker-5");
+                moved++;
+            }
+        }
+
+        assertThat(moved).isBetween(KEYS / after.size() * 8 / 10, KEYS / after.size() * 12 / 10);
+    }
+
+    @Test
+    void sameKeyKeepsItsWorker() {
+        List<String> workers = List.of("worker-1", "worker-2", "worker-3");
+
+        assertThat(owner("input:abc", workers)).isEqualTo(owner("input:abc", workers));
+    }
+
+    private static String owner(String key, List<String> workers) {
+        return workers.stream()
+                .max(Comparator.comparingLong(worker -> WorkerRegistry.rendezvousScore(key, worker)))
+                .orElseThrow();
+    }
+}